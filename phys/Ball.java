@@ -0,0 +1,193 @@
+package phys;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import static java.lang.Math.*;
+
+class Ball extends PhysObject {
+    
+    public Ball(Bodies bodies, double x, double y, double radius, double speedX, double speedY, Color color) {
+        super(bodies, bodies.addBall(x, y, radius, speedX, speedY, color.getRGB()));
+    }
+    
+    public Ball(Bodies bodies, int index) {
+        super(bodies, index);
+    }
+    
+    public double getRadius() {
+        return bodies.radius[index];
+    }
+    
+    @Override
+    public void draw(Graphics g) {
+        g.setColor(getColor());
+        draw(g, getX(), getY(), getRadius());
+    }
+    
+    public static void draw(Graphics g, double x, double y, double radius) {
+        g.fillOval((int)x - (int)radius, (int)y - (int)radius, (int)radius*2, (int)radius*2);
+    }
+    
+    static void clamp(Bodies b, int i, double minX, double minY, double maxX, double maxY) {
+        
+        double radius = b.radius[i];
+        if(b.x[i] < radius) {
+            b.x[i] = radius;
+            b.speedX[i] = -b.speedX[i] * b.damping[i];
+        }
+        if(b.x[i] > maxX - radius) {
+            b.x[i] = maxX - radius;
+            b.speedX[i] = -b.speedX[i] * b.damping[i];
+        }
+        if(b.y[i] < radius) {
+            b.y[i] = radius;
+            b.speedY[i] = -b.speedY[i] * b.damping[i];
+        }
+        if(b.y[i] > maxY - radius) {
+            b.y[i] = maxY - radius;
+            b.speedY[i] = -b.speedY[i] * b.damping[i];
+        }
+        
+    }
+    
+    /**
+     * Resolves a contact between two balls by changing their speeds along the
+     * contact normal only, which gives the same result as rotating into the
+     * collision frame and applying partiallyElasticCollision there.
+     */
+    public static boolean collideBalls(Bodies b, int i, int j) {
+        
+        double dx = b.x[j] - b.x[i];
+        double dy = b.y[j] - b.y[i];
+        double distance = sqrt(dx * dx + dy * dy);
+        if(distance == 0)
+            return false;
+        double overlap = b.radius[i] + b.radius[j] - distance;
+        
+        if(overlap <= 0)
+            return false;
+        
+        double normalX = dx / distance;
+        double normalY = dy / distance;
+        double speed1 = b.speedX[i] * normalX + b.speedY[i] * normalY;
+        double speed2 = b.speedX[j] * normalX + b.speedY[j] * normalY;
+        double impulse = (1 + b.damping[i]*b.damping[j]) * (speed2 - speed1) / (b.mass[i] + b.mass[j]);
+        b.speedX[i] += impulse * b.mass[j] * normalX;
+        b.speedY[i] += impulse * b.mass[j] * normalY;
+        b.speedX[j] -= impulse * b.mass[i] * normalX;
+        b.speedY[j] -= impulse * b.mass[i] * normalY;
+        
+        double k = overlap / distance;
+        b.x[i] += (b.x[i] - b.x[j])*k/2;
+        b.y[i] += (b.y[i] - b.y[j])*k/2;
+        b.x[j] += (b.x[j] - b.x[i])*k/2;
+        b.y[j] += (b.y[j] - b.y[i])*k/2;
+        return true;
+        
+    }
+    
+    /**
+     * Writes the contact of two balls like PhysObject.contact.
+     */
+    static boolean ballContact(Bodies b, double[] x, double[] y, int i, int j, double[] out) {
+        double dx = x[j] - x[i];
+        double dy = y[j] - y[i];
+        double distance = sqrt(dx * dx + dy * dy);
+        if(distance == 0)
+            return false;
+        double overlap = b.radius[i] + b.radius[j] - distance;
+        if(overlap <= 0)
+            return false;
+        out[0] = dx / distance;
+        out[1] = dy / distance;
+        out[2] = overlap;
+        return true;
+    }
+    
+    /**
+     * Computes the response of ball i to a contact with ball j from the given
+     * state arrays without modifying them. Writes the change of speed and
+     * position of i into out (speedX, speedY, x, y) and returns false if the
+     * balls don't touch.
+     */
+    static boolean contactResponse(Bodies b, double[] x, double[] y, double[] speedX, double[] speedY, int i, int j, double[] out) {
+        
+        double dx = x[j] - x[i];
+        double dy = y[j] - y[i];
+        double distance = sqrt(dx * dx + dy * dy);
+        if(distance == 0)
+            return false;
+        double overlap = b.radius[i] + b.radius[j] - distance;
+        if(overlap <= 0)
+            return false;
+        
+        double normalX = dx / distance;
+        double normalY = dy / distance;
+        double speed1 = speedX[i] * normalX + speedY[i] * normalY;
+        double speed2 = speedX[j] * normalX + speedY[j] * normalY;
+        double impulse = (1 + b.damping[i]*b.damping[j]) * (speed2 - speed1) / (b.mass[i] + b.mass[j]);
+        out[0] = impulse * b.mass[j] * normalX;
+        out[1] = impulse * b.mass[j] * normalY;
+        
+        double k = overlap / distance;
+        out[2] = -dx*k/2;
+        out[3] = -dy*k/2;
+        return true;
+        
+    }
+    
+    /**
+     * Original solver that rotates both speeds into the collision frame.
+     * Kept as the reference for collideBalls.
+     */
+    public static boolean collideBallsReference(Bodies b, int i, int j) {
+        
+        double distance = Utils.distance(b.x[i], b.x[j], b.y[i], b.y[j]);
+        if(distance == 0)
+            return false;
+        double overlap = b.radius[i] + b.radius[j] - distance;
+        
+        if(overlap <= 0)
+            return false;
+        
+        double b1Speed = sqrt(pow(b.speedX[i], 2) + pow(b.speedY[i], 2));
+        double b2Speed = sqrt(pow(b.speedX[j], 2) + pow(b.speedY[j], 2));
+        double collisionAngle = atan2(b.x[j] - b.x[i], b.y[i] - b.y[j]) - PI/2;
+        double b1SpeedAngle = atan2(b.speedX[i], -b.speedY[i]) - PI/2;
+        double b2SpeedAngle = atan2(b.speedX[j], -b.speedY[j]) + PI/2;
+        double b1SpeedXRot = b1Speed * cos(b1SpeedAngle - collisionAngle);
+        double b1SpeedYRot = b1Speed * sin(b1SpeedAngle - collisionAngle);
+        double b2SpeedXRot = -b2Speed * cos(b2SpeedAngle - collisionAngle);
+        double b2SpeedYRot = -b2Speed * sin(b2SpeedAngle - collisionAngle);
+        double b1NewSpeedXRot = partiallyElasticCollision(b1SpeedXRot,
+                b2SpeedXRot, b.mass[i], b.mass[j], b.damping[i]*b.damping[j]);
+        double b2NewSpeedXRot = partiallyElasticCollision(b2SpeedXRot,
+                b1SpeedXRot, b.mass[j], b.mass[i], b.damping[i]*b.damping[j]);
+        b.speedX[i] = b1NewSpeedXRot * cos(collisionAngle) + b1SpeedYRot * cos(collisionAngle + PI/2);
+        b.speedY[i] = b1NewSpeedXRot * sin(collisionAngle) + b1SpeedYRot * sin(collisionAngle + PI/2);
+        b.speedX[j] = b2NewSpeedXRot * cos(collisionAngle) + b2SpeedYRot * cos(collisionAngle + PI/2);
+        b.speedY[j] = b2NewSpeedXRot * sin(collisionAngle) + b2SpeedYRot * sin(collisionAngle + PI/2);
+        
+        double k = overlap / distance;
+        b.x[i] += (b.x[i] - b.x[j])*k/2;
+        b.y[i] += (b.y[i] - b.y[j])*k/2;
+        b.x[j] += (b.x[j] - b.x[i])*k/2;
+        b.y[j] += (b.y[j] - b.y[i])*k/2;
+        return true;
+        
+    }
+    
+    public static double elasticCollision(double v1, double v2, double m1, double m2) {
+        return (v1*(m1-m2)+2*m2*v2)/(m1+m2);
+    }
+    
+    public static double partiallyElasticCollision(double v1, double v2, double m1, double m2, double restitution) {
+        return (restitution*m2*(v2-v1)+m1*v1+m2*v2)/(m1+m2);
+    }
+    
+    public static double mass(double radius) {
+        //mass = 4.0/3.0*PI*pow(radius, 3)*cubucPixelMass;
+        return PI * radius * radius;
+    }
+    
+}
@@ -0,0 +1,101 @@
+package phys;
+
+import java.lang.management.ManagementFactory;
+import static java.lang.Math.*;
+
+/**
+ * Micro-benchmarks for the physics kernels. Every combination of kernel, scene
+ * and body count is warmed up and then measured, reporting the mean time per
+ * call and the bytes allocated per call by the benchmark thread.
+ * Usage: Bench [kernels=collide,gravity,springs,discovery,move,step] [scenes=lattice,random,cluster]
+ *              [counts=1000,10000,100000] [warmup=5] [iterations=20] [exact] [brute] [parallel] [scalar]
+ * The gravity and move kernels use the Vector API when VectorApiKernels
+ * is compiled and the JVM runs with --add-modules jdk.incubator.vector, scalar
+ * turns that off. Vector gravity is used here even though simulations only use
+ * it with vectorGravityEnabled. Radial gravity uses Barnes-Hut unless exact is given,
+ * exact gravity takes too long at the largest counts.
+ */
+public class Bench {
+    
+    static final String[] KERNELS = {"collide", "gravity", "springs", "discovery", "move", "step"};
+    
+    public static void main(String[] args) {
+        String[] kernels = KERNELS;
+        String[] scenes = {"lattice", "random", "cluster"};
+        int[] counts = {1000, 10000, 100000};
+        int warmup = 5;
+        int iterations = 20;
+        Config config = new Config();
+        config.barnesHutEnabled = true;
+        // the benchmark measures the vector gravity kernel too, simulations have to ask for it
+        config.vectorGravityEnabled = true;
+        for(String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if(arg.startsWith("kernels=")) kernels = value.split(",");
+            else if(arg.startsWith("scenes=")) scenes = value.split(",");
+            else if(arg.startsWith("counts=")) counts = parseInts(value.split(","));
+            else if(arg.startsWith("warmup=")) warmup = Integer.parseInt(value);
+            else if(arg.startsWith("iterations=")) iterations = Integer.parseInt(value);
+            else if(arg.equals("exact")) config.barnesHutEnabled = false;
+            else if(arg.equals("brute")) config.broadphaseEnabled = false;
+            else if(arg.equals("parallel")) config.parallelEnabled = true;
+            else if(arg.equals("scalar")) config.vectorEnabled = false;
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        config.collisionsEnabled = true;
+        config.gravityRadialEnabled = true;
+        
+        System.out.printf("%-10s %-8s %8s %14s %14s %10s%n", "kernel", "scene", "bodies", "ns/op", "bytes/op", "springs");
+        for(String kernel : kernels)
+            for(String scene : scenes)
+                for(int count : counts)
+                    run(kernel, scene, count, warmup, iterations, config);
+    }
+    
+    private static int[] parseInts(String[] values) {
+        int[] result = new int[values.length];
+        for(int i = 0; i < values.length; i++)
+            result[i] = Integer.parseInt(values[i]);
+        return result;
+    }
+    
+    static void run(String kernel, String scene, int count, int warmup, int iterations, Config config) {
+        double side = max(1920, sqrt(count) * 20 + 200);
+        World world = new World(side, side, count, config.copy());
+        // the same bodies for every kernel and every run
+        world.seed(1);
+        Scenes.load(world, scene, count);
+        if(kernel.equals("springs"))
+            world.discoverSprings();
+        double delta = pow(2, world.config.simulationSpeedExponent);
+        
+        for(int i = 0; i < warmup; i++)
+            runKernel(world, kernel, delta);
+        
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++)
+            runKernel(world, kernel, delta);
+        long time = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        
+        System.out.printf("%-10s %-8s %8d %14.0f %14.1f %10d%n", kernel, scene, world.bodies.count,
+                (double)time / iterations, (double)allocated / iterations, world.springs.size());
+        world.shutdown();
+    }
+    
+    static void runKernel(World world, String kernel, double delta) {
+        switch(kernel) {
+            case "collide": world.collide(); break;
+            case "gravity": world.applyGravity(delta); break;
+            case "springs": world.applySprings(delta); break;
+            case "discovery": world.discoverSprings(); break;
+            case "move": world.moveBodies(delta); break;
+            case "step": world.step(delta); break;
+            default: throw new IllegalArgumentException("Unknown kernel: " + kernel);
+        }
+    }
+    
+}
@@ -0,0 +1,142 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for all bodies of a simulation.
+ * Ball and Box objects are views over a single index of this store.
+ */
+public class Bodies {
+    
+    static final int BALL = 0;
+    static final int BOX = 1;
+    static final int SHAPES = 2;
+    
+    int count;
+    double[] x, y;
+    double[] speedX, speedY;
+    double[] mass;
+    double[] radius;
+    double[] width, height;
+    double[] damping;
+    int[] type;
+    int[] color;
+    // see Islands
+    boolean[] sleeping;
+    int[] restSteps;
+    // see MultiRate, -1 for bodies stepped at the full rate
+    int[] cluster;
+    
+    // the masses of new boxes depend on its cubucPixelMass
+    final Config config;
+    
+    public Bodies() {
+        this(16);
+    }
+    
+    public Bodies(int capacity) {
+        this(capacity, new Config());
+    }
+    
+    public Bodies(int capacity, Config config) {
+        this.config = config;
+        x = new double[capacity];
+        y = new double[capacity];
+        speedX = new double[capacity];
+        speedY = new double[capacity];
+        mass = new double[capacity];
+        radius = new double[capacity];
+        width = new double[capacity];
+        height = new double[capacity];
+        damping = new double[capacity];
+        type = new int[capacity];
+        color = new int[capacity];
+        sleeping = new boolean[capacity];
+        restSteps = new int[capacity];
+        cluster = new int[capacity];
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    public void ensureCapacity(int capacity) {
+        if(capacity <= x.length)
+            return;
+        capacity = Math.max(capacity, x.length * 2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        speedX = Arrays.copyOf(speedX, capacity);
+        speedY = Arrays.copyOf(speedY, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        damping = Arrays.copyOf(damping, capacity);
+        type = Arrays.copyOf(type, capacity);
+        color = Arrays.copyOf(color, capacity);
+        sleeping = Arrays.copyOf(sleeping, capacity);
+        restSteps = Arrays.copyOf(restSteps, capacity);
+        cluster = Arrays.copyOf(cluster, capacity);
+    }
+    
+    private int add(int type, double x, double y, double speedX, double speedY, int color) {
+        ensureCapacity(count + 1);
+        int i = count++;
+        this.type[i] = type;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.speedX[i] = speedX;
+        this.speedY[i] = speedY;
+        this.color[i] = color;
+        damping[i] = Globals.DAMPING;
+        radius[i] = 0;
+        width[i] = 0;
+        height[i] = 0;
+        sleeping[i] = false;
+        restSteps[i] = 0;
+        cluster[i] = -1;
+        return i;
+    }
+    
+    public int addBall(double x, double y, double radius, double speedX, double speedY, int color) {
+        int i = add(BALL, x, y, speedX, speedY, color);
+        this.radius[i] = radius;
+        mass[i] = Ball.mass(radius);
+        return i;
+    }
+    
+    public int addBox(double x, double y, double width, double height, double speedX, double speedY, int color) {
+        int i = add(BOX, x, y, speedX, speedY, color);
+        this.width[i] = width;
+        this.height[i] = height;
+        mass[i] = Box.mass(width, height, config.cubucPixelMass);
+        return i;
+    }
+    
+    // bounding boxes, balls have no width and height and boxes have no radius, so these hold for both
+    double minX(int i) {
+        return x[i] - radius[i];
+    }
+    
+    double minY(int i) {
+        return y[i] - radius[i];
+    }
+    
+    double maxX(int i) {
+        return x[i] + radius[i] + width[i];
+    }
+    
+    double maxY(int i) {
+        return y[i] + radius[i] + height[i];
+    }
+    
+    public PhysObject get(int i) {
+        return type[i] == BOX ? new Box(this, i) : new Ball(this, i);
+    }
+    
+    public void clear() {
+        count = 0;
+    }
+    
+}
@@ -0,0 +1,133 @@
+package phys;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import static java.lang.Math.*;
+
+class Box extends PhysObject {
+    
+    public Box(Bodies bodies, double x, double y, double width, double height, double speedX, double speedY, Color color) {
+        super(bodies, bodies.addBox(x, y, width, height, speedX, speedY, color.getRGB()));
+    }
+    
+    public Box(Bodies bodies, int index) {
+        super(bodies, index);
+    }
+    
+    public double getWidth() {
+        return bodies.width[index];
+    }
+    
+    public double getHeight() {
+        return bodies.height[index];
+    }
+    
+    @Override
+    public void draw(Graphics g) {
+        g.setColor(getColor());
+        draw(g, getX(), getY(), getWidth(), getHeight());
+    }
+    
+    public static void draw(Graphics g, double x, double y, double width, double height) {
+        g.fillRect((int)x, (int)y, (int)width, (int)height);
+    }
+    
+    static void clamp(Bodies b, int i, double minX, double minY, double maxX, double maxY) {
+        
+        if(b.x[i] < 0) {
+            b.x[i] = 0;
+            b.speedX[i] = -b.speedX[i];
+        }
+        if(b.x[i] > maxX - b.width[i]) {
+            b.x[i] = maxX - b.width[i];
+            b.speedX[i] = -b.speedX[i];
+        }
+        if(b.y[i] < 0) {
+            b.y[i] = 0;
+            b.speedY[i] = -b.speedY[i];
+        }
+        if(b.y[i] > maxY - b.height[i]) {
+            b.y[i] = maxY - b.height[i];
+            b.speedY[i] = -b.speedY[i];
+        }
+        
+    }
+    
+    /**
+     * Separating axis test of two boxes. On each axis j can be pushed out
+     * forward or backward, the normal is the shortest of the four ways out.
+     */
+    static boolean boxContact(Bodies b, double[] x, double[] y, int i, int j, double[] out) {
+        double right = x[i] + b.width[i] - x[j];
+        double left = x[j] + b.width[j] - x[i];
+        if(right <= 0 || left <= 0)
+            return false;
+        double down = y[i] + b.height[i] - y[j];
+        double up = y[j] + b.height[j] - y[i];
+        if(down <= 0 || up <= 0)
+            return false;
+        double depthX = min(right, left), depthY = min(down, up);
+        if(depthX < depthY) {
+            out[0] = direction(right, left, i, j);
+            out[1] = 0;
+            out[2] = depthX;
+        } else {
+            out[0] = 0;
+            out[1] = direction(down, up, i, j);
+            out[2] = depthY;
+        }
+        return true;
+    }
+    
+    /**
+     * 1 if pushing j forward is shorter, -1 if pushing it backward is. Ties go
+     * by index, so swapping i and j always flips the sign.
+     */
+    private static double direction(double forward, double backward, int i, int j) {
+        if(forward != backward)
+            return forward < backward ? 1 : -1;
+        return i < j ? 1 : -1;
+    }
+    
+    /**
+     * Contact of ball i with box j, using the point of the box closest to the center of the ball.
+     */
+    static boolean ballBoxContact(Bodies b, double[] x, double[] y, int i, int j, double[] out) {
+        double radius = b.radius[i];
+        double dx = min(max(x[i], x[j]), x[j] + b.width[j]) - x[i];
+        double dy = min(max(y[i], y[j]), y[j] + b.height[j]) - y[i];
+        double distance2 = dx * dx + dy * dy;
+        if(distance2 >= radius * radius)
+            return false;
+        if(distance2 > 0) {
+            double distance = sqrt(distance2);
+            out[0] = dx / distance;
+            out[1] = dy / distance;
+            out[2] = radius - distance;
+            return true;
+        }
+        // the center is inside the box, the ball leaves through the nearest side
+        double left = x[i] - x[j], right = x[j] + b.width[j] - x[i];
+        double top = y[i] - y[j], bottom = y[j] + b.height[j] - y[i];
+        double nearest = min(min(left, right), min(top, bottom));
+        out[0] = 0;
+        out[1] = 0;
+        if(nearest == left)
+            out[0] = 1;
+        else if(nearest == right)
+            out[0] = -1;
+        else if(nearest == top)
+            out[1] = 1;
+        else
+            out[1] = -1;
+        out[2] = radius + nearest;
+        return true;
+    }
+    
+    public static double mass(double width, double height, double cubucPixelMass) {
+        double bigSide = max(width, height);
+        double smallSide = min(width, height);
+        return bigSide * bigSide * smallSide * cubucPixelMass;
+    }
+    
+}
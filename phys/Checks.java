@@ -0,0 +1,931 @@
+package phys;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static java.lang.Math.*;
+
+/**
+ * Self checks that compare the optimized code paths against the reference
+ * ones they replace. Exits with status 1 if any check fails.
+ */
+public class Checks {
+    
+    private static int failures = 0;
+    // stateHash walks every body, so runs are compared at checkpoints, not after every step
+    private static final int HASH_EVERY = 50;
+    // the random cases and every generated world are the same every run
+    private static final SplittableRandom random = new SplittableRandom(1);
+    
+    public static void main(String[] args) {
+        checkCollisionSolver();
+        checkShapes();
+        checkContactSolver();
+        checkPairCounts();
+        checkBroadphase();
+        checkNeighbourList();
+        checkIntegrators();
+        checkVectorKernels();
+        checkSleeping();
+        checkMultiRate();
+        checkIndependentWorlds();
+        checkDeterminism();
+        checkAllocationFree();
+        if(failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+    
+    private static void check(String name, boolean passed, String details) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + name + (details.isEmpty() ? "" : ": " + details));
+        if(!passed)
+            failures++;
+    }
+    
+    static World copy(World world) {
+        World result = new World(world.width, world.height, world.bodies.count, world.config.copy());
+        Bodies b = world.bodies;
+        for(int i = 0; i < b.count; i++) {
+            if(b.type[i] == Bodies.BALL)
+                result.bodies.addBall(b.x[i], b.y[i], b.radius[i], b.speedX[i], b.speedY[i], b.color[i]);
+            else
+                result.bodies.addBox(b.x[i], b.y[i], b.width[i], b.height[i], b.speedX[i], b.speedY[i], b.color[i]);
+        }
+        for(int e = 0; e < world.springs.edgeCount; e++)
+            result.springs.add(world.springs.from[e], world.springs.to[e]);
+        return result;
+    }
+    
+    /**
+     * collideBalls against collideBallsReference on random overlapping pairs.
+     */
+    static void checkCollisionSolver() {
+        Bodies b = new Bodies();
+        double maxError = 0;
+        for(int k = 0; k < 100000; k++) {
+            b.clear();
+            double radius1 = Utils.randomBetween(random, 1, 20);
+            double radius2 = Utils.randomBetween(random, 1, 20);
+            double angle = Utils.randomBetween(random, 0, 2*PI);
+            double distance = Utils.randomBetween(random, 0.01, 0.99) * (radius1 + radius2);
+            double speedX1 = Utils.randomBetween(random, -10, 10), speedY1 = Utils.randomBetween(random, -10, 10);
+            double speedX2 = Utils.randomBetween(random, -10, 10), speedY2 = Utils.randomBetween(random, -10, 10);
+            double damping = Utils.randomBetween(random, 0, 1);
+            // balls 0 and 1 go through collideBalls, 2 and 3 are the same pair for the reference
+            for(int copy = 0; copy < 2; copy++) {
+                int i = b.addBall(0, 0, radius1, speedX1, speedY1, 0);
+                int j = b.addBall(cos(angle)*distance, sin(angle)*distance, radius2, speedX2, speedY2, 0);
+                b.damping[i] = b.damping[j] = damping;
+            }
+            Ball.collideBalls(b, 0, 1);
+            Ball.collideBallsReference(b, 2, 3);
+            for(int n = 0; n < 2; n++) {
+                double scale = max(1, abs(b.speedX[n + 2]) + abs(b.speedY[n + 2]));
+                maxError = max(maxError, abs(b.speedX[n] - b.speedX[n + 2]) / scale);
+                maxError = max(maxError, abs(b.speedY[n] - b.speedY[n + 2]) / scale);
+                maxError = max(maxError, abs(b.x[n] - b.x[n + 2]));
+                maxError = max(maxError, abs(b.y[n] - b.y[n + 2]));
+            }
+        }
+        check("collideBalls matches collideBallsReference", maxError < 1e-9, "max error " + maxError);
+    }
+    
+    /**
+     * Box-box and ball-box contacts on random overlapping pairs must conserve
+     * momentum and leave the bodies just touching, and the grid and neighbour
+     * list must visit every touching pair of a scene with both shapes.
+     */
+    static void checkShapes() {
+        Bodies b = new Bodies();
+        double[] contact = new double[3];
+        Config config = new Config();
+        double maxMomentumError = 0, maxDepth = 0;
+        for(int k = 0; k < 100000; k++) {
+            b.clear();
+            if(k % 2 == 0)
+                b.addBall(Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 1, 20),
+                        Utils.randomBetween(random, -10, 10), Utils.randomBetween(random, -10, 10), 0);
+            else
+                b.addBox(Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 1, 40), Utils.randomBetween(random, 1, 40),
+                        Utils.randomBetween(random, -10, 10), Utils.randomBetween(random, -10, 10), 0);
+            b.addBox(Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 0, 40), Utils.randomBetween(random, 1, 40), Utils.randomBetween(random, 1, 40),
+                    Utils.randomBetween(random, -10, 10), Utils.randomBetween(random, -10, 10), 0);
+            // both orders, so box-ball pairs are covered as well
+            int i = k % 4 < 2 ? 1 : 0, j = 1 - i;
+            double momentumX = b.mass[0] * b.speedX[0] + b.mass[1] * b.speedX[1];
+            double momentumY = b.mass[0] * b.speedY[0] + b.mass[1] * b.speedY[1];
+            if(!PhysObject.collide(config, b, i, j, contact))
+                continue;
+            double scale = max(1, abs(momentumX) + abs(momentumY));
+            maxMomentumError = max(maxMomentumError, abs(b.mass[0] * b.speedX[0] + b.mass[1] * b.speedX[1] - momentumX) / scale);
+            maxMomentumError = max(maxMomentumError, abs(b.mass[0] * b.speedY[0] + b.mass[1] * b.speedY[1] - momentumY) / scale);
+            if(PhysObject.contact(b, b.x, b.y, i, j, contact))
+                maxDepth = max(maxDepth, contact[2]);
+        }
+        check("box contacts conserve momentum and separate the bodies", maxMomentumError < 1e-9 && maxDepth < 1e-9,
+                String.format("momentum error %.2e, depth left %.2e", maxMomentumError, maxDepth));
+        
+        World world = new World(1920, 1080);
+        world.seed(1);
+        Scenes.randomObjects(world, "box", 300);
+        Scenes.randomObjects(world, "ball", 1000);
+        Bodies bodies = world.bodies;
+        final HashSet<Long> visited = new HashSet<>();
+        PairVisitor collect = new PairVisitor() {
+            @Override
+            public void visit(int i, int j) {
+                visited.add(SpringGraph.key(i, j));
+            }
+        };
+        SpatialGrid grid = new SpatialGrid();
+        grid.build(bodies, SpatialGrid.cellSizeFor(bodies, world.config));
+        grid.forEachPair(bodies, collect);
+        int touching = 0, missing = 0;
+        for(int i = 0; i < bodies.count; i++)
+            for(int j = 0; j < bodies.count; j++)
+                if(i != j && PhysObject.contact(bodies, bodies.x, bodies.y, i, j, contact)) {
+                    touching++;
+                    if(!visited.contains(SpringGraph.key(i, j)))
+                        missing++;
+                }
+        NeighbourList list = new NeighbourList();
+        list.update(bodies, grid, world.config);
+        visited.clear();
+        list.forEachPair(collect);
+        for(int i = 0; i < bodies.count; i++)
+            for(int j = 0; j < bodies.count; j++)
+                if(i != j && PhysObject.contact(bodies, bodies.x, bodies.y, i, j, contact)
+                        && !visited.contains(SpringGraph.key(i, j)))
+                    missing++;
+        check("grid and neighbour list visit all touching boxes and balls", missing == 0,
+                missing + " missing of " + touching + " touching pairs");
+    }
+    
+    /**
+     * A pile of balls dropped into a narrow box must come to rest with the
+     * contact solver, with less speed and less overlap left than when every
+     * pair is resolved on its own.
+     */
+    static void checkContactSolver() {
+        World world = new World(150, 600);
+        world.config.collisionsEnabled = true;
+        world.config.gravityVerticalEnabled = true;
+        world.config.springsEnabled = false;
+        Bodies b = world.bodies;
+        for(int i = 0; i < 400; i++)
+            b.addBall(10 + (i % 13) * 10 + Utils.randomBetween(random, -1, 1), 590 - (i / 13) * 10, 5, 0, 0, 0);
+        World solved = copy(world);
+        solved.config.contactSolverEnabled = true;
+        for(int s = 0; s < 2000; s++) {
+            world.step(0.25);
+            solved.step(0.25);
+        }
+        double kinetic = Sweep.kineticEnergy(b), solvedKinetic = Sweep.kineticEnergy(solved.bodies);
+        double depth = meanDepth(b), solvedDepth = meanDepth(solved.bodies);
+        check("contact solver settles a pile", solvedKinetic < kinetic && solvedDepth < depth,
+                String.format("kinetic %.2f vs %.2f, mean overlap %.3f vs %.3f", solvedKinetic, kinetic, solvedDepth, depth));
+    }
+    
+    /**
+     * Ten touching pairs of balls, far from each other. Every step mode must
+     * count each of them once as tested and once as resolved.
+     */
+    static void checkPairCounts() {
+        World world = new World(1000, 500);
+        world.config.collisionsEnabled = true;
+        world.config.springsEnabled = false;
+        for(int k = 0; k < 10; k++) {
+            world.bodies.addBall(50 + k * 90, 250, 5, 0, 0, 0);
+            world.bodies.addBall(58 + k * 90, 250, 5, 0, 0, 0);
+        }
+        String[] modes = {"sequential", "neighbour list", "parallel", "contact solver"};
+        boolean same = true;
+        StringBuilder counts = new StringBuilder();
+        for(int m = 0; m < modes.length; m++) {
+            World w = copy(world);
+            w.config.neighbourListEnabled = m == 1;
+            w.config.parallelEnabled = m == 2;
+            w.config.contactSolverEnabled = m == 3;
+            w.step(0.25);
+            w.shutdown();
+            same &= w.metrics.pairsTested == 10 && w.metrics.pairsResolved == 10;
+            counts.append(m == 0 ? "" : ", ").append(modes[m]).append(' ')
+                    .append(w.metrics.pairsTested).append('/').append(w.metrics.pairsResolved);
+        }
+        check("every step mode counts a pair once", same, counts.toString());
+    }
+    
+    private static double meanDepth(Bodies b) {
+        double[] contact = new double[3];
+        double total = 0;
+        int contacts = 0;
+        for(int i = 0; i < b.count; i++) {
+            for(int j = i + 1; j < b.count; j++) {
+                if(PhysObject.contact(b, b.x, b.y, i, j, contact)) {
+                    total += contact[2];
+                    contacts++;
+                }
+            }
+        }
+        return contacts == 0 ? 0 : total / contacts;
+    }
+    
+    /**
+     * Spring discovery with the grid must find exactly the springs brute force finds.
+     */
+    static void checkBroadphase() {
+        for(String scene : new String[] {"lattice", "random", "cluster"}) {
+            World world = new World(1920, 1080);
+            world.seed(1);
+            Scenes.load(world, scene, 2000);
+            World reference = copy(world);
+            world.config.broadphaseEnabled = true;
+            world.discoverSprings();
+            reference.config.broadphaseEnabled = false;
+            reference.discoverSprings();
+            HashSet<Long> edges = new HashSet<>();
+            for(int e = 0; e < world.springs.edgeCount; e++)
+                edges.add(SpringGraph.key(world.springs.from[e], world.springs.to[e]));
+            boolean same = world.springs.size() == reference.springs.size();
+            for(int e = 0; same && e < reference.springs.edgeCount; e++)
+                same = edges.contains(SpringGraph.key(reference.springs.from[e], reference.springs.to[e]));
+            check("grid spring discovery matches brute force on " + scene, same,
+                    world.springs.size() + " vs " + reference.springs.size() + " springs");
+        }
+        
+        World world = new World(1920, 1080);
+        world.seed(1);
+        try {
+            SceneLoader.load(world, new StringReader("lattice columns=40 rows=50 jitter=2\nrandom count=500 radius=4"), "check");
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        World reference = copy(world);
+        world.config.broadphaseEnabled = true;
+        world.initializeSprings(21);
+        reference.config.broadphaseEnabled = false;
+        reference.initializeSprings(21);
+        boolean same = world.springs.size() == reference.springs.size();
+        for(int e = 0; same && e < reference.springs.edgeCount; e++)
+            same = world.springs.contains(reference.springs.from[e], reference.springs.to[e]);
+        check("grid spring initialization matches brute force", same,
+                world.springs.size() + " vs " + reference.springs.size() + " springs");
+    }
+    
+    /**
+     * After every step the neighbour list must still contain every pair closer than the cutoff.
+     */
+    static void checkNeighbourList() {
+        World world = new World(1920, 1080);
+        world.seed(1);
+        Scenes.load(world, "random", 1000);
+        NeighbourList list = new NeighbourList();
+        SpatialGrid grid = new SpatialGrid();
+        final HashSet<Long> listed = new HashSet<>();
+        PairVisitor collect = new PairVisitor() {
+            @Override
+            public void visit(int i, int j) {
+                listed.add(SpringGraph.key(i, j));
+            }
+        };
+        int steps = 100;
+        int missing = 0;
+        for(int s = 0; s < steps; s++) {
+            world.step(1);
+            Bodies b = world.bodies;
+            list.update(b, grid, world.config);
+            listed.clear();
+            list.forEachPair(collect);
+            double cutoff = SpatialGrid.cellSizeFor(b, world.config);
+            for(int i = 0; i < b.count; i++)
+                for(int j = 0; j < b.count; j++)
+                    if(i != j && Utils.distance(b.x[i], b.x[j], b.y[i], b.y[j]) < cutoff
+                            && !listed.contains(SpringGraph.key(i, j)))
+                        missing++;
+        }
+        check("neighbour list covers all pairs within the cutoff", missing == 0,
+                missing + " missing pairs, " + list.rebuilds + " rebuilds in " + steps + " steps");
+    }
+    
+    /**
+     * Two balls on an undamped spring pair. Velocity Verlet must conserve energy
+     * and RK4 must follow a fine reference run better with 4 times larger steps
+     * than the phased Euler scheme.
+     */
+    static void checkIntegrators() {
+        double[] euler = oscillate(Integrator.PHASED, 0.25);
+        double[] verlet = oscillate(Integrator.VELOCITY_VERLET, 1);
+        double[] rk4 = oscillate(Integrator.RK4, 1);
+        double[] reference = oscillate(Integrator.RK4, 0.01);
+        check("velocity Verlet at 4x the step conserves energy better than Euler", verlet[2] < euler[2],
+                String.format("energy error %.2e vs %.2e", verlet[2], euler[2]));
+        double eulerError = hypot(euler[0] - reference[0], euler[1] - reference[1]);
+        double rk4Error = hypot(rk4[0] - reference[0], rk4[1] - reference[1]);
+        check("RK4 at 4x the step is more accurate than Euler", rk4Error < eulerError,
+                String.format("position error %.2e vs %.2e", rk4Error, eulerError));
+        
+        // a world that was already stepping must not reuse forces from before the load
+        World[] worlds = new World[3];
+        for(int k = 0; k < worlds.length; k++) {
+            worlds[k] = new World(1920, 1080);
+            worlds[k].seed(1);
+            worlds[k].config.integrator = Integrator.VELOCITY_VERLET;
+            worlds[k].config.collisionsEnabled = true;
+            worlds[k].config.gravityVerticalEnabled = true;
+            Scenes.load(worlds[k], "lattice", 0);
+        }
+        worlds[1].config.gravityVerticalEnabled = false;
+        for(int s = 0; s < 100; s++) {
+            worlds[0].step(0.25);
+            worlds[1].step(0.25);
+        }
+        try {
+            Path file = Files.createTempFile("phys", ".snapshot");
+            Snapshot.save(worlds[1], file);
+            Snapshot.load(worlds[0], file);
+            Snapshot.load(worlds[2], file);
+            Files.delete(file);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        worlds[0].step(0.25);
+        worlds[2].step(0.25);
+        check("velocity Verlet steps a loaded snapshot like a fresh world", worlds[0].stateHash() == worlds[2].stateHash(), "");
+    }
+    
+    /**
+     * Returns the final position of the second ball and the largest relative energy error.
+     */
+    private static double[] oscillate(int integrator, double delta) {
+        World world = new World(2000, 2000);
+        world.config.integrator = integrator;
+        world.config.springDamping = 0;
+        world.bodies.addBall(1000, 1000, 5, 0, 0, 0);
+        world.bodies.addBall(1023, 1000, 5, 0, 0.05, 0);
+        world.springs.add(0, 1);
+        world.springs.add(1, 0);
+        double start = springEnergy(world);
+        double maxError = 0;
+        for(int s = 0; s < round(2000 / delta); s++) {
+            world.step(delta);
+            maxError = max(maxError, abs(springEnergy(world) - start) / start);
+        }
+        return new double[] {world.bodies.x[1], world.bodies.y[1], maxError};
+    }
+    
+    private static double springEnergy(World world) {
+        Bodies b = world.bodies;
+        double energy = 0;
+        for(int i = 0; i < 2; i++)
+            energy += b.mass[i] * (b.speedX[i] * b.speedX[i] + b.speedY[i] * b.speedY[i]) / 2;
+        double offset = Utils.distance(b.x[0], b.x[1], b.y[0], b.y[1]) - world.config.springDistance;
+        return energy + world.config.springForce * offset * offset / 2;
+    }
+    
+    /**
+     * The vector kernels must match the scalar ones: gravity up to rounding
+     * and move exactly, and whole steps of a spring lattice must be the same,
+     * so the physics doesn't depend on whether the Vector API is there.
+     * Skipped when it isn't available.
+     */
+    static void checkVectorKernels() {
+        if(!VectorSupport.AVAILABLE) {
+            System.out.println("skip  vector kernels: compile vector/phys and run with --add-modules jdk.incubator.vector");
+            return;
+        }
+        World world = new World(1920, 1080);
+        world.seed(1);
+        world.config.barnesHutEnabled = false;
+        Scenes.load(world, "random", 3001);
+        world.discoverSprings();
+        Bodies b = world.bodies;
+        
+        World scalar = copy(world);
+        scalar.config.vectorEnabled = false;
+        scalar.applyGravity(1);
+        World vectorized = copy(world);
+        vectorized.config.vectorGravityEnabled = true;
+        vectorized.applyGravity(1);
+        check("vector gravity matches scalar gravity", maxRelativeError(scalar.bodies.speedX, vectorized.bodies.speedX, b.count) < 1e-9
+                && maxRelativeError(scalar.bodies.speedY, vectorized.bodies.speedY, b.count) < 1e-9,
+                String.format("max relative error %.2e", maxRelativeError(scalar.bodies.speedX, vectorized.bodies.speedX, b.count)));
+        
+        World lattice = new World(1920, 1080);
+        lattice.seed(1);
+        Scenes.load(lattice, "lattice", 0);
+        scalar = copy(lattice);
+        scalar.config.vectorEnabled = false;
+        vectorized = copy(lattice);
+        for(int step = 0; step < 200; step++) {
+            scalar.step(0.25);
+            vectorized.step(0.25);
+        }
+        boolean same = scalar.springs.size() == vectorized.springs.size();
+        for(int i = 0; i < lattice.bodies.count; i++)
+            same &= scalar.bodies.x[i] == vectorized.bodies.x[i] && scalar.bodies.y[i] == vectorized.bodies.y[i]
+                    && scalar.bodies.speedX[i] == vectorized.bodies.speedX[i] && scalar.bodies.speedY[i] == vectorized.bodies.speedY[i];
+        check("a lattice steps the same with and without vectors", same,
+                String.format("%d and %d springs after 200 steps", scalar.springs.size(), vectorized.springs.size()));
+        
+        scalar = copy(world);
+        scalar.config.vectorEnabled = false;
+        vectorized = copy(world);
+        for(int i = 0; i < b.count; i += 7) {
+            scalar.bodies.speedX[i] = vectorized.bodies.speedX[i] = 40 * (i % 3 - 1);
+            scalar.bodies.speedY[i] = vectorized.bodies.speedY[i] = 40 * (i % 5 - 2);
+        }
+        scalar.moveBodies(1);
+        vectorized.moveBodies(1);
+        same = true;
+        for(int i = 0; i < b.count; i++)
+            same &= scalar.bodies.x[i] == vectorized.bodies.x[i] && scalar.bodies.y[i] == vectorized.bodies.y[i]
+                    && scalar.bodies.speedX[i] == vectorized.bodies.speedX[i] && scalar.bodies.speedY[i] == vectorized.bodies.speedY[i];
+        check("vector move matches scalar move", same, VectorSupport.describe());
+    }
+    
+    /**
+     * Two separate rows of balls resting on the floor must fall asleep and stay
+     * in place, and a ball dropped on one row must wake only that row.
+     */
+    static void checkSleeping() {
+        World world = new World(1000, 500);
+        world.config.sleepingEnabled = true;
+        world.config.collisionsEnabled = true;
+        world.config.gravityVerticalEnabled = true;
+        world.config.springsEnabled = false;
+        Bodies b = world.bodies;
+        for(int i = 0; i < 10; i++) {
+            b.addBall(100 + i * 10.5, 495, 5, 0, 0, 0);
+            b.addBall(600 + i * 10.5, 495, 5, 0, 0, 0);
+        }
+        int steps = 0;
+        while(world.islands.sleepingBodies() < b.count && steps < 2000) {
+            world.step(0.25);
+            steps++;
+        }
+        check("resting bodies fall asleep", world.islands.sleepingBodies() == b.count,
+                world.islands.sleepingBodies() + " of " + b.count + " asleep after " + steps + " steps");
+        double[] x = Arrays.copyOf(b.x, b.count), y = Arrays.copyOf(b.y, b.count);
+        for(int s = 0; s < 100; s++)
+            world.step(0.25);
+        boolean still = true;
+        for(int i = 0; i < x.length; i++)
+            still &= b.x[i] == x[i] && b.y[i] == y[i];
+        check("sleeping bodies don't move", still, "");
+        
+        int ball = b.addBall(100, 400, 5, 0, 5, 0);
+        boolean wokeRow = false, wokeOther = false;
+        for(int s = 0; s < 200 && !wokeRow; s++) {
+            world.step(0.25);
+            for(int i = 0; i < ball; i++) {
+                wokeRow |= !b.sleeping[i] && i % 2 == 0;
+                wokeOther |= !b.sleeping[i] && i % 2 == 1;
+            }
+        }
+        check("a dropped ball wakes only the row it hits", wokeRow && !wokeOther,
+                "hit row " + (wokeRow ? "woke" : "slept") + ", other row " + (wokeOther ? "woke" : "slept"));
+    }
+    
+    /**
+     * A ball dropped on a resting spring sheet, stepped at the full rate and
+     * with multi-rate stepping. The sheet has to be mostly coarse before the
+     * hit, the hit has to release the bodies it touches, and the result has
+     * to stay close to the full rate one.
+     */
+    static void checkMultiRate() {
+        World[] worlds = new World[2];
+        for(int k = 0; k < worlds.length; k++) {
+            World world = new World(800, 1000, 901);
+            world.config.collisionsEnabled = true;
+            world.config.multiRateEnabled = k == 1;
+            for(int i = 0; i < 30; i++)
+                for(int j = 0; j < 30; j++)
+                    world.bodies.addBall(100 + i * 20, 300 + j * 20, 5, 0, 0, 0);
+            world.initializeSprings(world.config.springMaxDistance);
+            world.bodies.addBall(400, 100, 8, 0, 6, 0);
+            worlds[k] = world;
+        }
+        World full = worlds[0], multi = worlds[1];
+        int coarseBefore = 0;
+        boolean released = false;
+        for(int s = 0; s < 300; s++) {
+            full.step(0.25);
+            multi.step(0.25);
+            if(s == 100)
+                coarseBefore = multi.multiRate.coarseBodies();
+            // the body right under the ball
+            released |= s > 100 && multi.bodies.speedY[450] > 1 && multi.bodies.cluster[450] < 0;
+        }
+        check("a quiet sheet is stepped coarse", coarseBefore > multi.bodies.count / 2,
+                coarseBefore + " of " + multi.bodies.count + " bodies coarse");
+        check("a hit releases the bodies it moves", released, "");
+        double error = 0;
+        for(int i = 0; i < full.bodies.count; i++)
+            error = max(error, Utils.distance(full.bodies.x[i], multi.bodies.x[i], full.bodies.y[i], multi.bodies.y[i]));
+        check("multi-rate stepping follows the full rate", error < 0.01 && full.springs.size() == multi.springs.size(),
+                String.format("max distance %.2g, springs %d and %d", error, full.springs.size(), multi.springs.size()));
+        
+        // without springs only the contact can release the body that is hit
+        World sheet = new World(800, 1000, 901);
+        sheet.config.collisionsEnabled = true;
+        sheet.config.springsEnabled = false;
+        sheet.config.multiRateEnabled = true;
+        for(int i = 0; i < 30; i++)
+            for(int j = 0; j < 30; j++)
+                sheet.bodies.addBall(100 + i * 20, 300 + j * 20, 5, 0, 0, 0);
+        for(int s = 0; s < 100; s++)
+            sheet.step(0.25);
+        int target = 15 * 30;
+        int cluster = sheet.bodies.cluster[target];
+        sheet.bodies.addBall(sheet.bodies.x[target], sheet.bodies.y[target] - 9, 5, 0, 4, 0);
+        sheet.step(0.25);
+        boolean releasedByHit = cluster >= 0 && sheet.bodies.cluster[target] < 0;
+        double hitSpeed = sheet.bodies.speedY[target];
+        // two cluster advances, which would share its speed with the cluster
+        for(int s = 0; s < 2 * sheet.config.multiRateInterval; s++)
+            sheet.step(0.25);
+        check("a contact releases a coarse body in the same step", releasedByHit,
+                "cluster " + cluster + " before, " + sheet.bodies.cluster[target] + " after");
+        check("a hit body keeps its speed", hitSpeed > 1 && sheet.bodies.speedY[target] > 0.9 * hitSpeed,
+                String.format("speed %.2f after the hit, %.2f %d steps later", hitSpeed, sheet.bodies.speedY[target],
+                        2 * sheet.config.multiRateInterval));
+    }
+    
+    /**
+     * Worlds with different configs stepped at the same time on a thread pool
+     * must end up exactly where they end up when stepped one after another.
+     */
+    static void checkIndependentWorlds() {
+        World world = new World(1920, 1080);
+        world.seed(1);
+        Scenes.load(world, "random", 500);
+        world.config.collisionsEnabled = true;
+        world.config.gravityRadialEnabled = true;
+        final double[] forces = {0.5, 1, 2, 4};
+        World[] sequential = new World[forces.length];
+        final World[] concurrent = new World[forces.length];
+        for(int k = 0; k < forces.length; k++) {
+            sequential[k] = copy(world);
+            sequential[k].config.springForce = forces[k];
+            sequential[k].config.gravityVerticalEnabled = k % 2 == 0;
+            concurrent[k] = copy(sequential[k]);
+            for(int s = 0; s < 200; s++)
+                sequential[k].step(0.25);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(forces.length);
+        Future<?>[] runs = new Future<?>[forces.length];
+        for(int k = 0; k < forces.length; k++) {
+            final World w = concurrent[k];
+            runs[k] = pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for(int s = 0; s < 200; s++)
+                        w.step(0.25);
+                    return null;
+                }
+            });
+        }
+        boolean same = true;
+        try {
+            for(int k = 0; k < forces.length; k++) {
+                runs[k].get();
+                Bodies a = sequential[k].bodies, b = concurrent[k].bodies;
+                for(int i = 0; i < a.count; i++)
+                    same &= a.x[i] == b.x[i] && a.y[i] == b.y[i];
+                same &= sequential[k].springs.size() == concurrent[k].springs.size();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+        check("worlds with their own configs step independently", same, forces.length + " worlds");
+        
+        World scene = new World(1920, 1080);
+        try {
+            SceneLoader.load(scene, new StringReader("set cubucPixelMass 0.002\nset simulationSpeedExponent -1\nbox 100 100 10 20\n"), "units");
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        World other = new World(1920, 1080);
+        other.bodies.addBox(100, 100, 10, 20, 0, 0, 0);
+        check("scene settings stay in their world", other.config.simulationSpeedExponent == new Config().simulationSpeedExponent
+                && scene.bodies.mass[0] == 2 * other.bodies.mass[0], "");
+    }
+    
+    /**
+     * Worlds seeded the same must load the same scene and have the same state
+     * hashes while they run, and a different seed must load a different
+     * scene. The hashes must not depend on whether the vector kernels are
+     * used, so hash streams can be compared between JVMs started with and
+     * without the Vector API. A world loaded from a snapshot must go on with
+     * the same hashes as the one that saved it. That one runs without
+     * collisions, their order comes from the neighbour list, which isn't part
+     * of a snapshot. A corrupt snapshot must not change the world, and a
+     * recording must send the bodies again when a snapshot replaces them.
+     */
+    static void checkDeterminism() {
+        World[] worlds = new World[3];
+        long[] loaded = new long[worlds.length];
+        for(int k = 0; k < worlds.length; k++) {
+            worlds[k] = new World(1920, 1080);
+            worlds[k].config.collisionsEnabled = true;
+            worlds[k].config.gravityRadialEnabled = true;
+            worlds[k].seed(k < 2 ? 7 : 8);
+            Scenes.load(worlds[k], "random", 500);
+            loaded[k] = worlds[k].stateHash();
+        }
+        check("a different seed loads a different scene", loaded[0] == loaded[1] && loaded[0] != loaded[2], "");
+        World seeded = new World(1920, 1080);
+        World direct = new World(1920, 1080);
+        direct.seed(123456789012L);
+        try {
+            SceneLoader.load(seeded, new StringReader("seed 123456789012\nrandom count=100\n"), "seed");
+            SceneLoader.load(direct, new StringReader("random count=100\n"), "seed");
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        check("a scene can use a seed beyond the int range", seeded.stateHash() == direct.stateHash(), "");
+        boolean same = true;
+        for(int s = 1; s <= 300; s++) {
+            worlds[0].step(0.25);
+            worlds[1].step(0.25);
+            if(s % HASH_EVERY == 0)
+                same &= worlds[0].stateHash() == worlds[1].stateHash();
+        }
+        check("runs with the same seed have the same state hashes", same,
+                String.format("%016x after %d steps", worlds[0].stateHash(), worlds[0].steps));
+        
+        // the default config, where only springs act, and one with contacts and gravity as well
+        same = true;
+        for(int c = 0; c < 2; c++) {
+            World[] lattices = new World[2];
+            for(int k = 0; k < lattices.length; k++) {
+                lattices[k] = new World(1920, 1080);
+                lattices[k].config.collisionsEnabled = c == 1;
+                lattices[k].config.gravityVerticalEnabled = c == 1;
+                lattices[k].config.vectorEnabled = k == 0;
+                lattices[k].seed(7);
+                Scenes.load(lattices[k], "lattice", 0);
+            }
+            same &= sameHashes(lattices[0], lattices[1], 300);
+        }
+        check("the state hashes don't depend on the vector kernels", same, VectorSupport.describe());
+
+        // the neighbour list, the grid and the loop over all bodies, with springs, contacts and gravity
+        same = true;
+        for(int p = 0; p < 2; p++) {
+            World[] broadphases = new World[3];
+            for(int k = 0; k < broadphases.length; k++) {
+                broadphases[k] = new World(1920, 1080);
+                broadphases[k].config.collisionsEnabled = true;
+                broadphases[k].config.gravityVerticalEnabled = true;
+                broadphases[k].config.parallelEnabled = p == 1;
+                broadphases[k].config.broadphaseEnabled = k < 2;
+                broadphases[k].config.neighbourListEnabled = k == 0;
+                broadphases[k].seed(7);
+                Scenes.load(broadphases[k], "random", 300);
+            }
+            same &= sameHashes(broadphases[0], broadphases[1], 300);
+            for(int s = 0; s < 300; s++)
+                broadphases[2].step(0.25);
+            same &= broadphases[1].stateHash() == broadphases[2].stateHash();
+            for(World world : broadphases)
+                world.shutdown();
+        }
+        check("the state hashes don't depend on the broadphase", same, "");
+
+        // every pass of the parallel step only writes to the bodies of its own chunk
+        int[] threads = {1, 3, 8};
+        long[] reference = null;
+        same = true;
+        for(int run = 0; run < 2; run++) {
+            for(int t : threads) {
+                World world = new World(1920, 1080);
+                world.config.collisionsEnabled = true;
+                world.config.gravityRadialEnabled = true;
+                world.config.gravityVerticalEnabled = true;
+                world.config.parallelEnabled = true;
+                world.config.parallelThreads = t;
+                world.seed(7);
+                Scenes.load(world, "random", 300);
+                long[] hashes = new long[300 / HASH_EVERY];
+                for(int s = 1; s <= 300; s++) {
+                    world.step(0.25);
+                    if(s % HASH_EVERY == 0)
+                        hashes[s / HASH_EVERY - 1] = world.stateHash();
+                }
+                world.shutdown();
+                if(reference == null)
+                    reference = hashes;
+                same &= Arrays.equals(reference, hashes) && world.springs.size() > 0;
+            }
+        }
+        check("the parallel step gives the same state hashes with 1, 3 and 8 threads", same, "2 runs each");
+
+        World saved = worlds[2];
+        saved.config.collisionsEnabled = false;
+        // parameters a scene could have changed, the resumed world starts from the defaults
+        saved.config.barnesHutEnabled = !saved.config.barnesHutEnabled;
+        saved.config.integrator = Integrator.VELOCITY_VERLET;
+        saved.config.simulationSpeedExponent = -1;
+        saved.config.neighbourSkin = 3;
+        saved.config.maxAdaptiveSubsteps = 4;
+        saved.config.neighbourListEnabled = false;
+        for(int s = 0; s < 100; s++)
+            saved.step(pow(2, saved.config.simulationSpeedExponent));
+        World resumed = resume(saved);
+        String differs = "";
+        for(String name : Config.names())
+            if(!saved.config.get(name).equals(resumed.config.get(name)))
+                differs += " " + name;
+        check("a snapshot keeps every parameter", differs.isEmpty(), differs.trim());
+        same = sameHashes(saved, resumed, pow(2, saved.config.simulationSpeedExponent), 200);
+        
+        // two resting rows and a ball on its way down, which wakes one of them after the load
+        World sleeping = new World(1000, 500);
+        sleeping.config.sleepingEnabled = true;
+        sleeping.config.collisionsEnabled = true;
+        sleeping.config.gravityVerticalEnabled = true;
+        sleeping.config.springsEnabled = false;
+        for(int i = 0; i < 10; i++) {
+            sleeping.bodies.addBall(100 + i * 10.5, 495, 5, 0, 0, 0);
+            sleeping.bodies.addBall(600 + i * 10.5, 495, 5, 0, 0, 0);
+        }
+        for(int s = 0; s < 200; s++)
+            sleeping.step(0.25);
+        sleeping.bodies.addBall(100, 400, 5, 0, 5, 0);
+        sleeping.step(0.25);
+        int asleep = sleeping.islands.sleepingBodies();
+        same &= sameHashes(sleeping, resume(sleeping), 0.25, 200);
+        
+        World contacts = new World(1920, 1080);
+        contacts.config.collisionsEnabled = true;
+        contacts.config.contactSolverEnabled = true;
+        contacts.config.gravityVerticalEnabled = true;
+        contacts.seed(7);
+        Scenes.load(contacts, "random", 300);
+        // until the bodies pile up on the floor
+        for(int s = 0; s < 600; s++)
+            contacts.step(0.25);
+        int warmStarts = contacts.contactSolver.warmStarts();
+        same &= sameHashes(contacts, resume(contacts), 0.25, 200);
+        check("a resumed snapshot has the same state hashes", same && asleep > 0 && warmStarts > 0,
+                asleep + " bodies asleep, " + warmStarts + " warm started contacts at the save");
+        
+        long hash = resumed.stateHash();
+        boolean rejected = false;
+        try {
+            Path file = Files.createTempFile("phys", ".snapshot");
+            Snapshot.save(saved, file);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[Snapshot.HEADER_SIZE + Snapshot.parameters(saved.config).length + saved.bodies.count * 9 * 8] = 7;
+            Files.write(file, bytes);
+            try {
+                Snapshot.load(resumed, file);
+            } catch(IOException e) {
+                rejected = true;
+            }
+            Files.delete(file);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        check("a corrupt snapshot leaves the world unchanged", rejected && resumed.stateHash() == hash, "");
+        
+        // the snapshot has as many bodies as the recorded world and a later step
+        World recorded = new World(1920, 1080);
+        World boxes = new World(1920, 1080);
+        for(int i = 0; i < 10; i++) {
+            recorded.bodies.addBall(100 + i * 50, 100, 10, 0, 0, 0xffff0000);
+            boxes.bodies.addBox(100 + i * 50, 300, 20, 20, 0, 0, 0xff00ff00);
+        }
+        boxes.steps = 10;
+        World replayed = new World(1920, 1080);
+        try {
+            Path snapshot = Files.createTempFile("phys", ".snapshot");
+            Path trajectory = Files.createTempFile("phys", ".trajectory");
+            Snapshot.save(boxes, snapshot);
+            TrajectoryRecorder recorder = new TrajectoryRecorder(trajectory.toString());
+            recorder.record(recorded);
+            Snapshot.load(recorded, snapshot);
+            recorder.record(recorded);
+            recorder.close();
+            TrajectoryReader reader = new TrajectoryReader(trajectory.toString());
+            while(reader.next(replayed));
+            reader.close();
+            Files.delete(snapshot);
+            Files.delete(trajectory);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        check("a recording sends the bodies again after a load", replayed.bodies.type[0] == Bodies.BOX, "");
+    }
+    
+    /**
+     * Steps both worlds and compares their state hashes every HASH_EVERY steps.
+     */
+    static boolean sameHashes(World a, World b, int steps) {
+        return sameHashes(a, b, 0.25, steps);
+    }
+    
+    static boolean sameHashes(World a, World b, double delta, int steps) {
+        boolean same = true;
+        for(int s = 1; s <= steps; s++) {
+            a.step(delta);
+            b.step(delta);
+            if(s % HASH_EVERY == 0)
+                same &= a.stateHash() == b.stateHash();
+        }
+        return same;
+    }
+    
+    /**
+     * Saves the world and loads the snapshot into a new one.
+     */
+    static World resume(World world) {
+        World resumed = new World(1920, 1080);
+        try {
+            Path file = Files.createTempFile("phys", ".snapshot");
+            Snapshot.save(world, file);
+            Snapshot.load(resumed, file);
+            Files.delete(file);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return resumed;
+    }
+    
+    /**
+     * Steps of a warmed up world must not allocate, so long runs don't stall
+     * in the garbage collector. Buffers only ever grow, so the warm up steps
+     * take them to their final size and give the JIT time to compile the step.
+     * A recompilation can still run the vector kernels in the interpreter for
+     * a while, where vectors are objects, so every world gets three tries.
+     */
+    static void checkAllocationFree() {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported()) {
+            check("200 steps of a warmed up world allocate 0 bytes", true, "allocation counting unsupported");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        String[] names = {"default", "sleeping", "contact solver", "scalar", "adaptive substeps", "radial gravity", "RK4", "multi-rate"};
+        StringBuilder details = new StringBuilder();
+        boolean none = true;
+        for(int k = 0; k < names.length; k++) {
+            World world = new World(1920, 1080);
+            world.seed(1);
+            Scenes.load(world, "lattice", 0);
+            Config config = world.config;
+            config.collisionsEnabled = true;
+            config.gravityVerticalEnabled = true;
+            switch(k) {
+                case 1: config.sleepingEnabled = true; break;
+                case 2: config.contactSolverEnabled = true; break;
+                case 3: config.vectorEnabled = false; break;
+                case 4: config.adaptiveSubstepping = true; break;
+                case 5: config.gravityRadialEnabled = true; break;
+                case 6: config.integrator = Integrator.RK4; break;
+                case 7: config.multiRateEnabled = true; break;
+            }
+            for(int s = 0; s < 600; s++)
+                world.step(0.25);
+            long bytes = -1;
+            for(int attempt = 0; attempt < 3 && bytes != 0; attempt++) {
+                long before = threads.getCurrentThreadAllocatedBytes();
+                for(int s = 0; s < 200; s++)
+                    world.step(0.25);
+                bytes = threads.getCurrentThreadAllocatedBytes() - before;
+            }
+            none &= bytes == 0;
+            details.append(k == 0 ? "" : ", ").append(names[k]).append(' ').append(bytes);
+            world.shutdown();
+        }
+        check("200 steps of a warmed up world allocate 0 bytes", none, details.toString());
+    }
+    
+    private static double maxRelativeError(double[] expected, double[] actual, int count) {
+        double scale = 0;
+        for(int i = 0; i < count; i++)
+            scale = max(scale, abs(expected[i]));
+        double error = 0;
+        for(int i = 0; i < count; i++)
+            error = max(error, abs(expected[i] - actual[i]));
+        return scale == 0 ? error : error / scale;
+    }
+    
+}
@@ -0,0 +1,144 @@
+package phys;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+/**
+ * Parameters of a single World. Every World has its own Config, so worlds
+ * with different parameters can run side by side in one JVM. The window
+ * changes the Config of its world directly, settings of the window itself
+ * stay in Globals.
+ */
+public class Config implements Cloneable {
+    
+    boolean collisionsEnabled = false;
+    boolean referenceCollisionSolver = false;
+    boolean gravityRadialEnabled = false;
+    boolean gravityVerticalEnabled = false;
+    boolean backgroundFrictionEnabled = false;
+    boolean springsEnabled = true;
+    boolean broadphaseEnabled = true;
+    boolean neighbourListEnabled = true;
+    boolean parallelEnabled = false;
+    int parallelThreads = Runtime.getRuntime().availableProcessors();
+    // only has an effect when VectorSupport can load the vector kernels, which then give the same results
+    boolean vectorEnabled = true;
+    // vector radial gravity sums in a different order, so runs with it only match scalar runs up to rounding
+    boolean vectorGravityEnabled = false;
+    
+    double gravityVerticalForce = 0.1;
+    double gravityRadialForce = 0.1;
+    // exact pairwise gravity is the reference, pick barnesHutTheta with GravityReport before turning this on
+    boolean barnesHutEnabled = false;
+    double barnesHutTheta = 0.5;
+    double springForce = 1;
+    double springDamping = 0.5;
+    double springDistance = 20;
+    double springInitialDistance = 0;
+    double springMaxDistance = 25;
+    double neighbourSkin = 5;
+    // sleeping is only used by the sequential phased step
+    boolean sleepingEnabled = false;
+    double sleepEnergy = 0.1;
+    int sleepSteps = 60;
+    int sleepCheckInterval = 8;
+    double sleepContactMargin = 1;
+    double springMaxConnections = 600000;
+    double backgroundFrictionForce = 1;
+    // mass per cubic pixel of boxes
+    double cubucPixelMass = 0.001;
+    // every step advances the world by 2^simulationSpeedExponent
+    double simulationSpeedExponent = -2;
+    // sequential impulse contact solver, only used by the sequential step
+    boolean contactSolverEnabled = false;
+    int contactIterations = 8;
+    double contactCorrection = 0.2;
+    double contactSlop = 0.5;
+    double contactBounceSpeed = 0.5;
+    // multi-rate stepping of quiet regions, see MultiRate, only used by the phased sequential step
+    boolean multiRateEnabled = false;
+    int multiRateInterval = 4;
+    int multiRateCheckInterval = 32;
+    double multiRateRegionSize = 100;
+    double multiRateMaxSpeed = 0.05;
+    double multiRateMaxStrain = 0.01;
+    
+    // the parallel step always uses the phased scheme
+    int integrator = Integrator.PHASED;
+    boolean adaptiveSubstepping = false;
+    double adaptiveMaxDisplacement = 2;
+    double adaptiveMaxStrain = 0.05;
+    int maxAdaptiveSubsteps = 16;
+    
+    public Config copy() {
+        try {
+            return (Config)clone();
+        } catch(CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    /**
+     * Sets a parameter by name from its text value, like "springForce" to "0.5".
+     */
+    public void set(String name, String value) {
+        Field field;
+        try {
+            field = Config.class.getDeclaredField(name);
+        } catch(NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+        assign(field, this, value);
+    }
+    
+    /**
+     * Returns the value of a parameter by name.
+     */
+    public Object get(String name) {
+        try {
+            return Config.class.getDeclaredField(name).get(this);
+        } catch(NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+    }
+    
+    /**
+     * Names of all parameters, for code that copies every one of them like Snapshot.
+     */
+    public static String[] names() {
+        ArrayList<String> names = new ArrayList<>();
+        for(Field field : Config.class.getDeclaredFields())
+            if(!Modifier.isStatic(field.getModifiers()))
+                names.add(field.getName());
+        return names.toArray(new String[0]);
+    }
+    
+    /**
+     * Sets a boolean, int or double field of target (null for static fields) from its text value.
+     */
+    static void assign(Field field, Object target, String value) {
+        String name = field.getName();
+        if(Modifier.isFinal(field.getModifiers()))
+            throw new IllegalArgumentException("Setting " + name + " is constant");
+        try {
+            Class<?> type = field.getType();
+            if(type == boolean.class) {
+                if(!value.equals("true") && !value.equals("false"))
+                    throw new IllegalArgumentException("Expected true or false for " + name + ", got " + value);
+                field.setBoolean(target, value.equals("true"));
+            } else if(type == int.class) {
+                field.setInt(target, Integer.parseInt(value));
+            } else if(type == double.class) {
+                field.setDouble(target, Double.parseDouble(value));
+            } else {
+                throw new IllegalArgumentException("Setting " + name + " can't be set from text");
+            }
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number for " + name + ", got " + value);
+        } catch(IllegalAccessException e) {
+            throw new IllegalArgumentException("Setting " + name + " can't be set from text");
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package phys;
+
+import java.util.Arrays;
+import static java.lang.Math.*;
+
+/**
+ * Sequential impulse contact solver, used instead of resolving every pair on
+ * its own when contactSolverEnabled is set. The contacts of a step are
+ * collected first, each pair once, and then solved together in
+ * contactIterations passes, so a body resting on a pile gets the combined
+ * push of everything below it. The impulse of every contact is kept for the
+ * next step under the key of its pair and applied up front, which lets
+ * resting contacts start from the right answer instead of converging from
+ * zero every step. Overlaps are removed with split impulses, which move
+ * positions without adding speed, so correcting them doesn't make piles
+ * jitter. The walls of the world take part as contacts with a body that
+ * doesn't move, otherwise the weight of a pile would end up as speed of the
+ * bottom row, which the walls then bounce back.
+ */
+public class ContactSolver {
+    
+    private static final int LEFT = 0, TOP = 1, RIGHT = 2, BOTTOM = 3;
+    // warm start key of the walls, side s is keyed as WALL_KEY_BASE - s
+    private static final int WALL_KEY_BASE = Integer.MAX_VALUE;
+    
+    private int count;
+    // second is -1 - side for contacts with a wall
+    private int[] first = new int[64], second = new int[64];
+    private long[] key = new long[64];
+    private double[] normalX = new double[64], normalY = new double[64];
+    private double[] depth = new double[64];
+    private double[] normalMass = new double[64];
+    private double[] target = new double[64];
+    private double[] impulse = new double[64];
+    private double[] pushImpulse = new double[64];
+    // split impulse displacement of every body
+    private double[] pushX = new double[0], pushY = new double[0];
+    
+    // impulses of the last step by pair, for warm starting
+    private final LongDoubleHashMap previous = new LongDoubleHashMap();
+    
+    private Bodies bodies;
+    private Islands islands;
+    private MultiRate multiRate;
+    private final double[] contact = new double[3];
+    int pairsTested;
+    
+    /**
+     * Collects the contacts of pairs visited in either order, every pair once.
+     */
+    final PairVisitor collector = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            if(i >= j) return;
+            boolean sleepingI = bodies.sleeping[i];
+            boolean sleepingJ = bodies.sleeping[j];
+            if(sleepingI && sleepingJ) return;
+            if(bodies.cluster[i] >= 0 && bodies.cluster[i] == bodies.cluster[j]) return;
+            pairsTested++;
+            if(!PhysObject.contact(bodies, bodies.x, bodies.y, i, j, contact))
+                return;
+            if(sleepingI) islands.wake(bodies, i);
+            if(sleepingJ) islands.wake(bodies, j);
+            multiRate.release(bodies, i);
+            multiRate.release(bodies, j);
+            add(i, j, contact[0], contact[1], contact[2]);
+        }
+    };
+    
+    void begin(Bodies b, Islands islands, MultiRate multiRate) {
+        bodies = b;
+        this.islands = islands;
+        this.multiRate = multiRate;
+        count = 0;
+        pairsTested = 0;
+    }
+    
+    private void add(int i, int j, double nx, double ny, double d) {
+        if(count == first.length) {
+            int capacity = count * 2;
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            key = Arrays.copyOf(key, capacity);
+            normalX = Arrays.copyOf(normalX, capacity);
+            normalY = Arrays.copyOf(normalY, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            normalMass = Arrays.copyOf(normalMass, capacity);
+            target = Arrays.copyOf(target, capacity);
+            impulse = Arrays.copyOf(impulse, capacity);
+            pushImpulse = Arrays.copyOf(pushImpulse, capacity);
+        }
+        first[count] = i;
+        second[count] = j;
+        // walls are keyed as the last four indices
+        key[count] = SpringGraph.key(i, j >= 0 ? j : WALL_KEY_BASE - (-1 - j));
+        normalX[count] = nx;
+        normalY[count] = ny;
+        depth[count] = d;
+        count++;
+    }
+    
+    /**
+     * Adds a contact for every awake body at the full rate that touches a
+     * wall of the world. Coarse bodies that touch a wall release their
+     * cluster in MultiRate.checkWalls instead.
+     */
+    private void addWalls(double width, double height) {
+        Bodies b = bodies;
+        for(int i = 0; i < b.count; i++) {
+            if(b.sleeping[i] || b.cluster[i] >= 0) continue;
+            if(b.minX(i) <= 0)
+                add(i, -1 - LEFT, -1, 0, -b.minX(i));
+            if(b.minY(i) <= 0)
+                add(i, -1 - TOP, 0, -1, -b.minY(i));
+            if(b.maxX(i) >= width)
+                add(i, -1 - RIGHT, 1, 0, b.maxX(i) - width);
+            if(b.maxY(i) >= height)
+                add(i, -1 - BOTTOM, 0, 1, b.maxY(i) - height);
+        }
+    }
+    
+    /**
+     * Solves the collected contacts and the contacts with the walls and
+     * returns the number of contacts between bodies.
+     */
+    int solve(Config config, double width, double height) {
+        int pairs = count;
+        addWalls(width, height);
+        Bodies b = bodies;
+        double[] speedX = b.speedX, speedY = b.speedY, mass = b.mass;
+        if(pushX.length < b.count) {
+            pushX = new double[b.x.length];
+            pushY = new double[b.x.length];
+        }
+        for(int c = 0; c < count; c++) {
+            int i = first[c], j = second[c];
+            double nx = normalX[c], ny = normalY[c];
+            double approach;
+            if(j >= 0) {
+                normalMass[c] = mass[i] * mass[j] / (mass[i] + mass[j]);
+                approach = (speedX[j] - speedX[i]) * nx + (speedY[j] - speedY[i]) * ny;
+            } else {
+                normalMass[c] = mass[i];
+                approach = -speedX[i] * nx - speedY[i] * ny;
+            }
+            // new fast contacts bounce like in collideBalls, the others just stop, which lets piles come to rest
+            double p = previous.get(key[c], -1);
+            double restitution = j >= 0 ? b.damping[i] * b.damping[j] : b.damping[i];
+            target[c] = p < 0 && approach < -config.contactBounceSpeed ? -restitution * approach : 0;
+            p = max(p, 0);
+            impulse[c] = p;
+            pushImpulse[c] = 0;
+            pushX[i] = pushY[i] = 0;
+            if(j >= 0)
+                pushX[j] = pushY[j] = 0;
+            if(p != 0) {
+                speedX[i] -= p * nx / mass[i];
+                speedY[i] -= p * ny / mass[i];
+                if(j >= 0) {
+                    speedX[j] += p * nx / mass[j];
+                    speedY[j] += p * ny / mass[j];
+                }
+            }
+        }
+    
+        for(int iteration = 0; iteration < config.contactIterations; iteration++) {
+            for(int c = 0; c < count; c++) {
+                int i = first[c], j = second[c];
+                double nx = normalX[c], ny = normalY[c];
+                double approach = -speedX[i] * nx - speedY[i] * ny;
+                if(j >= 0)
+                    approach += speedX[j] * nx + speedY[j] * ny;
+                double total = max(impulse[c] + normalMass[c] * (target[c] - approach), 0);
+                double change = total - impulse[c];
+                impulse[c] = total;
+                speedX[i] -= change * nx / mass[i];
+                speedY[i] -= change * ny / mass[i];
+                if(j >= 0) {
+                    speedX[j] += change * nx / mass[j];
+                    speedY[j] += change * ny / mass[j];
+                }
+            }
+        }
+    
+        // split impulses, they push the bodies apart without changing their speeds
+        double correction = config.contactCorrection, slop = config.contactSlop;
+        for(int iteration = 0; iteration < config.contactIterations; iteration++) {
+            for(int c = 0; c < count; c++) {
+                int i = first[c], j = second[c];
+                double nx = normalX[c], ny = normalY[c];
+                double separation = -pushX[i] * nx - pushY[i] * ny;
+                if(j >= 0)
+                    separation += pushX[j] * nx + pushY[j] * ny;
+                double wanted = correction * max(depth[c] - slop, 0);
+                double total = max(pushImpulse[c] + normalMass[c] * (wanted - separation), 0);
+                double change = total - pushImpulse[c];
+                pushImpulse[c] = total;
+                pushX[i] -= change * nx / mass[i];
+                pushY[i] -= change * ny / mass[i];
+                if(j >= 0) {
+                    pushX[j] += change * nx / mass[j];
+                    pushY[j] += change * ny / mass[j];
+                }
+            }
+        }
+        for(int c = 0; c < count; c++) {
+            int i = first[c], j = second[c];
+            b.x[i] += pushX[i];
+            b.y[i] += pushY[i];
+            // a body in several contacts is only moved once
+            pushX[i] = pushY[i] = 0;
+            if(j >= 0) {
+                b.x[j] += pushX[j];
+                b.y[j] += pushY[j];
+                pushX[j] = pushY[j] = 0;
+            }
+        }
+    
+        previous.clear();
+        for(int c = 0; c < count; c++)
+            previous.put(key[c], impulse[c]);
+        bodies = null;
+        islands = null;
+        multiRate = null;
+        return pairs;
+    }
+    
+    int warmStarts() {
+        return previous.size();
+    }
+    
+    /**
+     * Copies the impulses of the last step and the keys of their pairs, for Snapshot.
+     */
+    void saveWarmStarts(long[] keys, double[] impulses) {
+        previous.copyTo(keys, impulses);
+    }
+    
+    void loadWarmStarts(long[] keys, double[] impulses, int count) {
+        previous.clear();
+        for(int c = 0; c < count; c++)
+            previous.put(keys[c], impulses[c]);
+    }
+    
+    /**
+     * Forgets the impulses of the last step, for when the bodies were replaced.
+     */
+    public void clear() {
+        previous.clear();
+    }
+
+}
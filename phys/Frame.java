@@ -0,0 +1,81 @@
+package phys;
+
+/**
+ * Copy of everything the renderer needs from a World: body positions, sizes,
+ * colours and the spring edge list. Frames are filled by the simulation
+ * thread and handed over to the renderer through a FrameBuffer, after which
+ * they are only read until they are recycled.
+ */
+public class Frame {
+    
+    long sequence;
+    long steps;
+    double alpha = 1;
+    int count;
+    double[] x = new double[0], y = new double[0];
+    double[] previousX = new double[0], previousY = new double[0];
+    int previousCount;
+    double[] radius = new double[0];
+    double[] width = new double[0], height = new double[0];
+    int[] type = new int[0];
+    int[] color = new int[0];
+    int edgeCount;
+    int[] springFrom = new int[0], springTo = new int[0];
+    
+    /**
+     * Copies the world, alpha is how far to interpolate from the previous positions to the current ones.
+     */
+    void copyFrom(World world, double alpha) {
+        Bodies b = world.bodies;
+        this.alpha = alpha;
+        count = b.count;
+        steps = world.steps;
+        if(x.length < count) {
+            int capacity = b.x.length;
+            x = new double[capacity];
+            y = new double[capacity];
+            previousX = new double[capacity];
+            previousY = new double[capacity];
+            radius = new double[capacity];
+            width = new double[capacity];
+            height = new double[capacity];
+            type = new int[capacity];
+            color = new int[capacity];
+        }
+        System.arraycopy(b.x, 0, x, 0, count);
+        System.arraycopy(b.y, 0, y, 0, count);
+        System.arraycopy(b.radius, 0, radius, 0, count);
+        System.arraycopy(b.width, 0, width, 0, count);
+        System.arraycopy(b.height, 0, height, 0, count);
+        System.arraycopy(b.type, 0, type, 0, count);
+        System.arraycopy(b.color, 0, color, 0, count);
+        previousCount = Math.min(world.previousCount, count);
+        System.arraycopy(world.previousX, 0, previousX, 0, previousCount);
+        System.arraycopy(world.previousY, 0, previousY, 0, previousCount);
+        SpringGraph springs = world.springs;
+        edgeCount = world.config.springsEnabled ? springs.edgeCount : 0;
+        if(springFrom.length < edgeCount) {
+            springFrom = new int[springs.from.length];
+            springTo = new int[springs.from.length];
+        }
+        System.arraycopy(springs.from, 0, springFrom, 0, edgeCount);
+        System.arraycopy(springs.to, 0, springTo, 0, edgeCount);
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    public double interpolatedX(int i) {
+        if(i >= previousCount)
+            return x[i];
+        return previousX[i] + (x[i] - previousX[i]) * alpha;
+    }
+    
+    public double interpolatedY(int i) {
+        if(i >= previousCount)
+            return y[i];
+        return previousY[i] + (y[i] - previousY[i]) * alpha;
+    }
+    
+}
@@ -0,0 +1,36 @@
+package phys;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free triple buffer of frames. The simulation thread fills its back
+ * frame and swaps it with the shared middle one, the renderer swaps its front
+ * frame with the middle one when that is newer. Each frame is owned by exactly
+ * one of the three at any time, so neither side ever waits for the other.
+ */
+public class FrameBuffer {
+    
+    private Frame back = new Frame();
+    private final AtomicReference<Frame> middle = new AtomicReference<>(new Frame());
+    private Frame front = new Frame();
+    private long sequence;
+    
+    /**
+     * Called by the simulation thread.
+     */
+    public void publish(World world, double alpha) {
+        back.copyFrom(world, alpha);
+        back.sequence = ++sequence;
+        back = middle.getAndSet(back);
+    }
+    
+    /**
+     * Called by the renderer, returns the newest published frame.
+     */
+    public Frame latest() {
+        if(middle.get().sequence > front.sequence)
+            front = middle.getAndSet(front);
+        return front;
+    }
+    
+}
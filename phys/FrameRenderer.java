@@ -0,0 +1,126 @@
+package phys;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Render path for large scenes. Springs outside the view are skipped and the
+ * rest are drawn as a single path, bodies are drawn grouped by colour, and
+ * balls smaller than lodRadius are written straight into an int raster as
+ * single pixels instead of going through fillOval.
+ */
+public class FrameRenderer {
+    
+    static double lodRadius = 1;
+    
+    private final Path2D.Float springPath = new Path2D.Float();
+    private long[] order = new long[0];
+    private int orderCount = -1;
+    private long orderChecksum;
+    private BufferedImage pixels;
+    private int[] raster;
+    private boolean pixelsDirty;
+    
+    double renderTime;
+    int drawnBodies, drawnSprings;
+    
+    public void render(Graphics g, Frame frame, int width, int height) {
+        long start = System.nanoTime();
+        if(frame.edgeCount > 0)
+            drawSprings((Graphics2D)g, frame, width, height);
+        drawBodies(g, frame, width, height);
+        double time = (System.nanoTime() - start) / 1e6;
+        renderTime = renderTime == 0 ? time : renderTime * 0.9 + time * 0.1;
+    }
+    
+    private void drawSprings(Graphics2D g, Frame frame, int width, int height) {
+        springPath.reset();
+        drawnSprings = 0;
+        for(int e = 0; e < frame.edgeCount; e++) {
+            int i = frame.springFrom[e];
+            int j = frame.springTo[e];
+            double x1 = frame.interpolatedX(i), y1 = frame.interpolatedY(i);
+            double x2 = frame.interpolatedX(j), y2 = frame.interpolatedY(j);
+            if((x1 < 0 && x2 < 0) || (x1 > width && x2 > width) || (y1 < 0 && y2 < 0) || (y1 > height && y2 > height))
+                continue;
+            springPath.moveTo((int)x1, (int)y1);
+            springPath.lineTo((int)x2, (int)y2);
+            drawnSprings++;
+        }
+        g.setColor(Color.yellow);
+        g.draw(springPath);
+    }
+    
+    private void drawBodies(Graphics g, Frame frame, int width, int height) {
+        sortByColor(frame);
+        if(pixels == null || pixels.getWidth() != width || pixels.getHeight() != height) {
+            pixels = width > 0 && height > 0 ? new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB) : null;
+            raster = pixels == null ? null : ((DataBufferInt)pixels.getRaster().getDataBuffer()).getData();
+            pixelsDirty = false;
+        }
+        if(pixelsDirty) {
+            Arrays.fill(raster, 0);
+            pixelsDirty = false;
+        }
+        drawnBodies = 0;
+        int color = 0;
+        for(int k = 0; k < frame.count; k++) {
+            int i = (int)order[k];
+            double x = frame.interpolatedX(i);
+            double y = frame.interpolatedY(i);
+            if(frame.type[i] == Bodies.BALL) {
+                double radius = frame.radius[i];
+                if(x + radius < 0 || x - radius > width || y + radius < 0 || y - radius > height)
+                    continue;
+                if(radius < lodRadius && raster != null) {
+                    int px = (int)x, py = (int)y;
+                    if(px >= 0 && px < width && py >= 0 && py < height) {
+                        raster[py * width + px] = frame.color[i];
+                        pixelsDirty = true;
+                    }
+                    drawnBodies++;
+                    continue;
+                }
+            } else if(x + frame.width[i] < 0 || x > width || y + frame.height[i] < 0 || y > height) {
+                continue;
+            }
+            if(frame.color[i] != color) {
+                color = frame.color[i];
+                g.setColor(Utils.color(color));
+            }
+            if(frame.type[i] == Bodies.BALL)
+                Ball.draw(g, x, y, frame.radius[i]);
+            else
+                Box.draw(g, x, y, frame.width[i], frame.height[i]);
+            drawnBodies++;
+        }
+        if(pixelsDirty)
+            g.drawImage(pixels, 0, 0, null);
+    }
+    
+    /**
+     * Keeps the bodies of the frame ordered by colour, so the colour only changes
+     * once per group. Colours rarely change, so the order is only rebuilt when
+     * the number of bodies or the colour checksum differ from the last frame.
+     */
+    private void sortByColor(Frame frame) {
+        long checksum = 0;
+        for(int i = 0; i < frame.count; i++)
+            checksum = checksum * 31 + frame.color[i];
+        if(frame.count == orderCount && checksum == orderChecksum)
+            return;
+        if(order.length < frame.count)
+            order = new long[frame.color.length];
+        for(int i = 0; i < frame.count; i++)
+            order[i] = ((long)frame.color[i] << 32) | i;
+        Arrays.sort(order, 0, frame.count);
+        orderCount = frame.count;
+        orderChecksum = checksum;
+    }
+    
+}
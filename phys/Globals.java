@@ -1,27 +1,19 @@
 package phys;
 
+/**
+ * Settings of the window and the main loop. The parameters of a simulation,
+ * including its units and speed, are in its World's Config.
+ */
 public final class Globals {
     
-    static boolean collisionsEnabled = false;
-    static boolean gravityRadialEnabled = false;
-    static boolean gravityVerticalEnabled = false;
-    static boolean backgroundFrictionEnabled = false;
-    static boolean springsEnabled = true;
+    static boolean fastRenderEnabled = true;
     
-    static double gravityVerticalForce = 0.1;
-    static double gravityRadialForce = 0.1;
-    static double springForce = 1;
-    static double springDamping = 0.5;
-    static double springDistance = 20;
-    static double springInitialDistance = 0;
-    static double springMaxDistance = 25;
-    static double springMaxConnections = 600000;
-    static double backgroundFrictionForce = 1;
-    static double cubucPixelMass = 0.001;
     final static double DAMPING = 0.5;
     
     static boolean variableTimestep = true;
-    static double simulationSpeedExponent = -2;
+    static boolean fixedTimestep = false;
+    static double fixedStepRate = 240;
+    static int maxSubsteps = 8;
     static boolean pause = true;
     final static int TARGET_FPS = 100;
     final static int MAX_FRAME_TIME = (int)(0.1 * 1000000000);
@@ -0,0 +1,89 @@
+package phys;
+
+import java.util.SplittableRandom;
+
+/**
+ * Runs exact pairwise gravity and Barnes-Hut gravity on the same scene and
+ * prints the time per pass and the relative error for a range of theta values.
+ * Usage: GravityReport [bodies] [theta...]
+ */
+public class GravityReport {
+    
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        double[] thetas = {0.2, 0.3, 0.5, 0.7, 1.0};
+        if(args.length > 1) {
+            thetas = new double[args.length - 1];
+            for(int i = 1; i < args.length; i++)
+                thetas[i - 1] = Double.parseDouble(args[i]);
+        }
+        
+        Config config = new Config();
+        Bodies bodies = new Bodies(count);
+        double size = Math.sqrt(count) * 20;
+        SplittableRandom random = new SplittableRandom(1);
+        for(int i = 0; i < count; i++) {
+            new Ball(bodies, Utils.randomBetween(random, 0, size), Utils.randomBetween(random, 0, size),
+                    Utils.randomBetween(random, 2, 8), 0, 0, Utils.randomColor(random));
+        }
+        
+        // both methods get one untimed pass first, so neither is timed cold
+        exact(config, bodies);
+        clearSpeeds(bodies);
+        long start = System.nanoTime();
+        exact(config, bodies);
+        long exactTime = System.nanoTime() - start;
+        double[] exactX = new double[count];
+        double[] exactY = new double[count];
+        double norm = 0;
+        for(int i = 0; i < count; i++) {
+            exactX[i] = bodies.speedX[i];
+            exactY[i] = bodies.speedY[i];
+            norm += exactX[i] * exactX[i] + exactY[i] * exactY[i];
+        }
+        
+        System.out.println("bodies: " + count);
+        System.out.printf("%-8s %12s %10s %12s %12s%n", "theta", "time, ms", "speedup", "rms error", "max error");
+        System.out.printf("%-8s %12.2f %10s %12s %12s%n", "exact", exactTime / 1e6, "1.0", "0", "0");
+        QuadTree tree = new QuadTree();
+        tree.build(bodies);
+        for(int i = 0; i < count; i++)
+            tree.applyGravity(i, thetas[0], config.gravityRadialForce, 1);
+        for(double theta : thetas) {
+            clearSpeeds(bodies);
+            start = System.nanoTime();
+            tree.build(bodies);
+            for(int i = 0; i < count; i++)
+                tree.applyGravity(i, theta, config.gravityRadialForce, 1);
+            long time = System.nanoTime() - start;
+            double error = 0;
+            double maxError = 0;
+            for(int i = 0; i < count; i++) {
+                double dx = bodies.speedX[i] - exactX[i];
+                double dy = bodies.speedY[i] - exactY[i];
+                double exact = Math.sqrt(exactX[i] * exactX[i] + exactY[i] * exactY[i]);
+                error += dx * dx + dy * dy;
+                if(exact != 0)
+                    maxError = Math.max(maxError, Math.sqrt(dx * dx + dy * dy) / exact);
+            }
+            System.out.printf("%-8.2f %12.2f %10.1f %12.2e %12.2e%n", theta, time / 1e6,
+                    (double)exactTime / time, Math.sqrt(error / norm), maxError);
+        }
+    }
+    
+    private static void exact(Config config, Bodies bodies) {
+        for(int i = 0; i < bodies.count; i++)
+            for(int j = 0; j < bodies.count; j++) {
+                if(i == j) continue;
+                PhysObject.calculateGravity(config, bodies, i, j, 1);
+            }
+    }
+    
+    private static void clearSpeeds(Bodies bodies) {
+        for(int i = 0; i < bodies.count; i++) {
+            bodies.speedX[i] = 0;
+            bodies.speedY[i] = 0;
+        }
+    }
+    
+}
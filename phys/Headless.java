@@ -0,0 +1,177 @@
+package phys;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static java.lang.Math.*;
+
+/**
+ * Runs a scene without a window as fast as possible and prints the step rate.
+ * The scene is one of Scenes.NAMES or a scene file, see SceneLoader.
+ * Usage: Headless [scene] [steps] [bodies] [width] [height]
+ *                 [--checkpoint file] [--every steps] [--resume file] [--record file]
+ *                 [--metrics file] [--integrator name] [--adaptive]
+ *                 [--scalar] [--sleep] [--contacts] [--multirate] [--seed value] [--hash steps]
+ * With --checkpoint the world is saved every --every steps (10000 by default),
+ * --resume continues from a snapshot instead of loading the scene, up to the
+ * same total number of steps, with the parameters of the snapshot and the
+ * flags below on top of them. --record streams every step to a trajectory
+ * file that can be played back with Phys --replay file. --metrics appends
+ * phase timings and counters to a CSV file every second, they are also
+ * available through JMX as phys:type=Metrics. --integrator picks euler,
+ * verlet or rk4 instead of the phased scheme and --adaptive turns on
+ * adaptive substepping. The vector kernels are used when they are compiled,
+ * see VectorApiKernels, and the JVM runs with --add-modules
+ * jdk.incubator.vector, unless --scalar is given. They give the same results
+ * as the scalar code, so runs with and without them print the same hashes,
+ * except for vector radial gravity, which scenes have to turn on with
+ * vectorGravityEnabled. --sleep lets resting islands of bodies fall asleep,
+ * --contacts solves collisions with the contact solver and --multirate steps
+ * quiet regions as coarse clusters.
+ * --seed makes generated scenes the same every run, with --resume it replaces
+ * the random state of the snapshot, and --hash prints the state hash every
+ * that many steps. Runs with the same scene, seed and steps
+ * print the same hashes, so the hash lines of a changed engine can be diffed
+ * against the ones of a reference run to find the first step that differs.
+ */
+public class Headless {
+    
+    static final String USAGE = "Usage: Headless [scene] [steps] [bodies] [width] [height]"
+            + " [--checkpoint file] [--every steps] [--resume file] [--record file]"
+            + " [--metrics file] [--integrator name] [--adaptive]"
+            + " [--scalar] [--sleep] [--contacts] [--multirate] [--seed value] [--hash steps]";
+    
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> positional = new ArrayList<>();
+        String checkpoint = null;
+        String resume = null;
+        String record = null;
+        String metrics = null;
+        long every = 10000;
+        Long seed = null;
+        long hashEvery = 0;
+        // applied again after --resume, which replaces the parameters with the ones of the snapshot
+        Map<String, String> overrides = new LinkedHashMap<>();
+        String scene;
+        long steps;
+        int size;
+        double width, height;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                switch(args[i]) {
+                    case "--checkpoint": checkpoint = value(args, ++i); break;
+                    case "--every": every = Long.parseLong(value(args, ++i)); break;
+                    case "--resume": resume = value(args, ++i); break;
+                    case "--record": record = value(args, ++i); break;
+                    case "--metrics": metrics = value(args, ++i); break;
+                    case "--integrator": overrides.put("integrator", String.valueOf(Integrator.forName(value(args, ++i)))); break;
+                    case "--adaptive": overrides.put("adaptiveSubstepping", "true"); break;
+                    case "--scalar": overrides.put("vectorEnabled", "false"); break;
+                    case "--sleep": overrides.put("sleepingEnabled", "true"); break;
+                    case "--contacts": overrides.put("contactSolverEnabled", "true"); break;
+                    case "--multirate": overrides.put("multiRateEnabled", "true"); break;
+                    case "--seed": seed = Long.parseLong(value(args, ++i)); break;
+                    case "--hash": hashEvery = Long.parseLong(value(args, ++i)); break;
+                    default: positional.add(args[i]);
+                }
+            }
+            if(every <= 0)
+                throw new IllegalArgumentException("--every must be positive, got " + every);
+            scene = positional.size() > 0 ? positional.get(0) : "lattice";
+            steps = positional.size() > 1 ? Long.parseLong(positional.get(1)) : 1000;
+            size = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : 0;
+            width = positional.size() > 3 ? Double.parseDouble(positional.get(3)) : 1920;
+            height = positional.size() > 4 ? Double.parseDouble(positional.get(4)) : 1080;
+        } catch(IllegalArgumentException e) {
+            exitWithUsage(e.getMessage(), USAGE);
+            return;
+        }
+        
+        Config config = new Config();
+        override(config, overrides);
+        World world = new World(width, height, 16, config);
+        if(seed != null)
+            world.seed(seed);
+        if(resume != null) {
+            long start = System.nanoTime();
+            Snapshot.load(world, resume);
+            override(world.config, overrides);
+            if(seed != null)
+                world.seed(seed);
+            System.out.printf("resumed from %s at step %d in %.3f s%n", resume, world.steps, (System.nanoTime() - start) / 1e9);
+        } else {
+            long start = System.nanoTime();
+            try {
+                Scenes.load(world, scene, size);
+            } catch(IllegalArgumentException e) {
+                exitWithUsage(e.getMessage(), USAGE);
+                return;
+            }
+            System.out.printf("loaded %s in %.3f s%n", scene, (System.nanoTime() - start) / 1e9);
+        }
+        // scene files may change the simulation speed
+        double delta = pow(2, world.config.simulationSpeedExponent);
+        System.out.println("scene: " + scene + ", bodies: " + world.bodies.count + ", dt: " + delta
+                + (VectorSupport.enabled(world.config) ? ", " + VectorSupport.describe() : ""));
+        
+        world.metrics.register("headless");
+        if(metrics != null)
+            world.metrics.startCsv(metrics, 1000);
+        TrajectoryRecorder recorder = record != null ? new TrajectoryRecorder(record) : null;
+        long first = world.steps;
+        long start = System.nanoTime();
+        long reportTime = start;
+        long reportSteps = first;
+        while(world.steps < steps) {
+            world.step(delta);
+            if(recorder != null)
+                recorder.record(world);
+            long step = world.steps;
+            if(checkpoint != null && step % every == 0)
+                Snapshot.save(world, checkpoint);
+            if(hashEvery > 0 && step % hashEvery == 0)
+                System.out.printf("step %d hash %016x%n", step, world.stateHash());
+            long now = System.nanoTime();
+            if(now - reportTime >= 1000000000L) {
+                System.out.printf("step %d: %.1f steps/s, springs: %d%n", step,
+                        (step - reportSteps) / ((now - reportTime) / 1e9), world.springs.size());
+                reportTime = now;
+                reportSteps = step;
+            }
+        }
+        if(checkpoint != null)
+            Snapshot.save(world, checkpoint);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d steps in %.3f s, %.1f steps/s, springs: %d%n", world.steps - first, seconds,
+                (world.steps - first) / seconds, world.springs.size());
+        if(world.config.sleepingEnabled)
+            System.out.println("sleeping bodies: " + world.islands.sleepingBodies());
+        if(world.config.multiRateEnabled)
+            System.out.println("coarse bodies: " + world.multiRate.coarseBodies());
+        if(recorder != null) {
+            recorder.close();
+            System.out.println("recorded " + recorder.recorded + " frames to " + record + ", dropped " + recorder.dropped);
+        }
+        world.metrics.stopCsv();
+        world.shutdown();
+    }
+    
+    private static void override(Config config, Map<String, String> overrides) {
+        for(Map.Entry<String, String> entry : overrides.entrySet())
+            config.set(entry.getKey(), entry.getValue());
+    }
+    
+    static void exitWithUsage(String message, String usage) {
+        System.err.println(message);
+        System.err.println(usage);
+        System.exit(2);
+    }
+    
+    static String value(String[] args, int i) {
+        if(i >= args.length)
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        return args[i];
+    }
+    
+}
@@ -0,0 +1,301 @@
+package phys;
+
+/**
+ * Advances the bodies of a World by one (sub)step, without spring discovery
+ * and collisions, which the World runs around it. PHASED is the original
+ * scheme that applies every force straight to the speeds one pass after
+ * another. The others first accumulate the accelerations of gravity and
+ * springs into force buffers and then integrate them. Background friction
+ * is not a smooth force, so every integrator applies it to the speeds as
+ * before, after the forces.
+ */
+public abstract class Integrator {
+    
+    static final int PHASED = 0;
+    static final int SEMI_IMPLICIT_EULER = 1;
+    static final int VELOCITY_VERLET = 2;
+    static final int RK4 = 3;
+    static final String[] NAMES = {"phased Euler", "semi-implicit Euler", "velocity Verlet", "RK4"};
+    
+    final int type;
+    double[] ax = new double[0], ay = new double[0];
+    
+    Integrator(int type) {
+        this.type = type;
+    }
+    
+    static Integrator create(int type) {
+        switch(type) {
+            case SEMI_IMPLICIT_EULER: return new SemiImplicitEuler();
+            case VELOCITY_VERLET: return new VelocityVerlet();
+            case RK4: return new RungeKutta4();
+            default: return new Phased();
+        }
+    }
+    
+    static int forName(String name) {
+        for(int type = 0; type < NAMES.length; type++)
+            if(NAMES[type].equalsIgnoreCase(name) || NAMES[type].replace(' ', '-').equalsIgnoreCase(name))
+                return type;
+        if(name.equalsIgnoreCase("euler")) return SEMI_IMPLICIT_EULER;
+        if(name.equalsIgnoreCase("verlet")) return VELOCITY_VERLET;
+        throw new IllegalArgumentException("Unknown integrator " + name);
+    }
+    
+    abstract void integrate(World world, double delta);
+    
+    /**
+     * True if ax and ay hold accelerations the next step starts from, which
+     * Snapshot then saves. Only velocity Verlet keeps them between steps.
+     */
+    boolean cached(World world) {
+        return false;
+    }
+    
+    /**
+     * Makes ax and ay, filled from a snapshot, the accelerations of the current state of the world.
+     */
+    void cache(World world) {
+    }
+    
+    void ensureCapacity(int count) {
+        if(ax.length < count) {
+            ax = new double[count];
+            ay = new double[count];
+        }
+    }
+    
+    static void finish(World world, double delta) {
+        long time = System.nanoTime();
+        if(world.config.backgroundFrictionEnabled) {
+            world.applyFriction(delta);
+            time = world.metrics.phase(Metrics.FRICTION, time);
+        }
+        Bodies b = world.bodies;
+        if(VectorSupport.enabled(world.config)) {
+            VectorSupport.KERNELS.clamp(b, 0, b.count, world.width, world.height);
+        } else {
+            for(int i = 0; i < b.count; i++)
+                PhysObject.clamp(b, i, 0, 0, world.width, world.height);
+        }
+        time = world.metrics.phase(Metrics.MOVE, time);
+        if(world.config.springsEnabled) {
+            world.breakSprings();
+            world.metrics.phase(Metrics.SPRING_FORCES, time);
+        }
+    }
+    
+    static class Phased extends Integrator {
+        
+        Phased() {
+            super(PHASED);
+        }
+        
+        @Override
+        void integrate(World world, double delta) {
+            Metrics metrics = world.metrics;
+            long time = System.nanoTime();
+            if(world.config.gravityRadialEnabled) {
+                world.applyGravity(delta);
+                time = metrics.phase(Metrics.GRAVITY, time);
+            }
+            if(world.config.gravityVerticalEnabled) {
+                world.applyVerticalGravity(delta);
+                time = metrics.phase(Metrics.VERTICAL_GRAVITY, time);
+            }
+            if(world.config.springsEnabled) {
+                world.applySprings(delta);
+                time = metrics.phase(Metrics.SPRING_FORCES, time);
+            }
+            if(world.config.backgroundFrictionEnabled) {
+                world.applyFriction(delta);
+                time = metrics.phase(Metrics.FRICTION, time);
+            }
+            world.moveBodies(delta);
+            metrics.phase(Metrics.MOVE, time);
+        }
+    
+    }
+    
+    static class SemiImplicitEuler extends Integrator {
+        
+        SemiImplicitEuler() {
+            super(SEMI_IMPLICIT_EULER);
+        }
+        
+        @Override
+        void integrate(World world, double delta) {
+            Bodies b = world.bodies;
+            ensureCapacity(b.count);
+            world.accumulateForces(ax, ay);
+            long time = System.nanoTime();
+            for(int i = 0; i < b.count; i++) {
+                b.speedX[i] += ax[i] * delta;
+                b.speedY[i] += ay[i] * delta;
+                b.x[i] += b.speedX[i] * delta;
+                b.y[i] += b.speedY[i] * delta;
+            }
+            world.metrics.phase(Metrics.MOVE, time);
+            finish(world, delta);
+        }
+    
+    }
+    
+    /**
+     * Kick-drift-kick form. The accelerations of the end of a step are kept
+     * for the first half-kick of the next one, with the springs added since
+     * then on top. They are evaluated again when the bodies were replaced or
+     * added, springs were removed after the evaluation or the parallel step
+     * ran in between. Springs stretched too far by the drift break before the
+     * evaluation, so the ones finish breaks after clamping are rare.
+     * Collisions, friction, clamping and parameter changes after the
+     * evaluation don't refresh the accelerations, as usual for velocity Verlet.
+     */
+    static class VelocityVerlet extends Integrator {
+        
+        private long cachedGeneration = -1;
+        private int cachedCount;
+        private int cachedEdges;
+        private long cachedRemovals;
+        private long cachedStep;
+        
+        VelocityVerlet() {
+            super(VELOCITY_VERLET);
+        }
+        
+        @Override
+        boolean cached(World world) {
+            // substeps of one step all see the same step number
+            return world.generation == cachedGeneration && world.bodies.count == cachedCount
+                    && world.springs.removals == cachedRemovals && world.steps - cachedStep <= 1;
+        }
+        
+        @Override
+        void cache(World world) {
+            cachedGeneration = world.generation;
+            cachedCount = world.bodies.count;
+            cachedEdges = world.springs.edgeCount;
+            cachedRemovals = world.springs.removals;
+            cachedStep = world.steps;
+        }
+        
+        @Override
+        void integrate(World world, double delta) {
+            Bodies b = world.bodies;
+            int count = b.count;
+            ensureCapacity(count);
+            if(!cached(world))
+                world.accumulateForces(ax, ay);
+            else if(world.config.springsEnabled)
+                world.accumulateSprings(ax, ay, cachedEdges);
+            long time = System.nanoTime();
+            double half = delta / 2;
+            for(int i = 0; i < count; i++) {
+                b.speedX[i] += ax[i] * half;
+                b.speedY[i] += ay[i] * half;
+                b.x[i] += b.speedX[i] * delta;
+                b.y[i] += b.speedY[i] * delta;
+            }
+            world.metrics.phase(Metrics.MOVE, time);
+            if(world.config.springsEnabled)
+                world.breakSprings();
+            world.accumulateForces(ax, ay);
+            cache(world);
+            for(int i = 0; i < count; i++) {
+                b.speedX[i] += ax[i] * half;
+                b.speedY[i] += ay[i] * half;
+            }
+            finish(world, delta);
+        }
+    
+    }
+    
+    /**
+     * Classic fourth order Runge-Kutta over positions and speeds, with four
+     * force evaluations per step. The intermediate states are written into
+     * the bodies, so the usual force kernels can be used for them.
+     */
+    static class RungeKutta4 extends Integrator {
+        
+        private double[] x0 = new double[0], y0 = new double[0];
+        private double[] speedX0 = new double[0], speedY0 = new double[0];
+        private double[] sumX = new double[0], sumY = new double[0];
+        private double[] sumSpeedX = new double[0], sumSpeedY = new double[0];
+        
+        RungeKutta4() {
+            super(RK4);
+        }
+        
+        @Override
+        void ensureCapacity(int count) {
+            super.ensureCapacity(count);
+            if(x0.length < count) {
+                x0 = new double[count];
+                y0 = new double[count];
+                speedX0 = new double[count];
+                speedY0 = new double[count];
+                sumX = new double[count];
+                sumY = new double[count];
+                sumSpeedX = new double[count];
+                sumSpeedY = new double[count];
+            }
+        }
+        
+        @Override
+        void integrate(World world, double delta) {
+            Bodies b = world.bodies;
+            int count = b.count;
+            ensureCapacity(count);
+            System.arraycopy(b.x, 0, x0, 0, count);
+            System.arraycopy(b.y, 0, y0, 0, count);
+            System.arraycopy(b.speedX, 0, speedX0, 0, count);
+            System.arraycopy(b.speedY, 0, speedY0, 0, count);
+            // derivative k of stage s has weight 1, 2, 2, 1 and is evaluated at start + k(s - 1) * h(s)
+            stage(world, 1, delta / 2, true);
+            stage(world, 2, delta / 2, false);
+            stage(world, 2, delta, false);
+            stage(world, 1, 0, false);
+            long time = System.nanoTime();
+            double sixth = delta / 6;
+            for(int i = 0; i < count; i++) {
+                b.x[i] = x0[i] + sumX[i] * sixth;
+                b.y[i] = y0[i] + sumY[i] * sixth;
+                b.speedX[i] = speedX0[i] + sumSpeedX[i] * sixth;
+                b.speedY[i] = speedY0[i] + sumSpeedY[i] * sixth;
+            }
+            world.metrics.phase(Metrics.MOVE, time);
+            finish(world, delta);
+        }
+        
+        /**
+         * Evaluates the derivative at the current state of the bodies, adds it
+         * to the sums with the given weight and moves the bodies to the state
+         * at start + derivative * next for the following stage.
+         */
+        private void stage(World world, double weight, double next, boolean first) {
+            Bodies b = world.bodies;
+            world.accumulateForces(ax, ay);
+            for(int i = 0; i < b.count; i++) {
+                double speedX = b.speedX[i];
+                double speedY = b.speedY[i];
+                if(first) {
+                    sumX[i] = speedX;
+                    sumY[i] = speedY;
+                    sumSpeedX[i] = ax[i];
+                    sumSpeedY[i] = ay[i];
+                } else {
+                    sumX[i] += weight * speedX;
+                    sumY[i] += weight * speedY;
+                    sumSpeedX[i] += weight * ax[i];
+                    sumSpeedY[i] += weight * ay[i];
+                }
+                b.x[i] = x0[i] + speedX * next;
+                b.y[i] = y0[i] + speedY * next;
+                b.speedX[i] = speedX0[i] + ax[i] * next;
+                b.speedY[i] = speedY0[i] + ay[i] * next;
+            }
+        }
+    
+    }
+
+}
@@ -0,0 +1,277 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Puts resting bodies to sleep. Bodies connected by springs or touching each
+ * other form an island, and an island falls asleep as a whole once all of its
+ * bodies had a kinetic energy below sleepEnergy for sleepSteps steps. Sleeping
+ * bodies have zero speed and are skipped by the per-body passes. An island
+ * wakes up as a whole when an awake body collides with it or pulls it with a
+ * spring, or at the next evaluation if it got connected to a moving body.
+ */
+public class Islands {
+    
+    private int[] parent = new int[0];
+    private int[] islandStart = new int[1];
+    private int[] islandMembers = new int[0];
+    private int[] islandOf = new int[0];
+    private boolean[] rested = new boolean[0];
+    private int evaluatedCount;
+    private int sleepingBodies;
+    // evaluations that put nothing to sleep double the time to the next one, up to MAX_BACKOFF intervals
+    static final int MAX_BACKOFF = 64;
+    private int backoff = 1;
+    private long nextCheck;
+    
+    // awake bodies in index order, and the same as runs of consecutive indices for the vector kernels
+    int[] awake = new int[0];
+    int awakeCount;
+    int[] runStart = new int[0], runEnd = new int[0];
+    int runCount;
+    private int collectedCount = -1;
+    
+    private Bodies bodies;
+    private double margin;
+    private final PairVisitor contact = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            if(i < j && touching(bodies, i, j, margin))
+                union(i, j);
+        }
+    };
+    
+    public boolean anySleeping() {
+        return sleepingBodies > 0;
+    }
+    
+    public int sleepingBodies() {
+        return sleepingBodies;
+    }
+    
+    /**
+     * Updates the awake list if bodies were added, woken up or put to sleep since the last call.
+     */
+    void collectAwake(Bodies b) {
+        if(collectedCount == b.count)
+            return;
+        ensureCapacity(b);
+        awakeCount = 0;
+        runCount = 0;
+        for(int i = 0; i < b.count; i++) {
+            // coarse bodies are moved with their cluster, see MultiRate
+            if(b.sleeping[i] || b.cluster[i] >= 0)
+                continue;
+            awake[awakeCount++] = i;
+            if(runCount > 0 && runEnd[runCount - 1] == i) {
+                runEnd[runCount - 1]++;
+            } else {
+                runStart[runCount] = i;
+                runEnd[runCount++] = i + 1;
+            }
+        }
+        collectedCount = b.count;
+    }
+    
+    /**
+     * Counts the steps every awake body has been resting and, every
+     * sleepCheckInterval steps, finds the islands and puts the rested ones to
+     * sleep. Islands are only searched when some body has rested long enough.
+     */
+    void update(Bodies b, SpringGraph springs, SpatialGrid grid, long step, Config config) {
+        double sleepEnergy = config.sleepEnergy;
+        int sleepSteps = config.sleepSteps;
+        collectAwake(b);
+        int restedBodies = 0;
+        for(int k = 0; k < awakeCount; k++) {
+            int i = awake[k];
+            double energy = b.mass[i] * (b.speedX[i] * b.speedX[i] + b.speedY[i] * b.speedY[i]) / 2;
+            b.restSteps[i] = energy < sleepEnergy ? Math.min(b.restSteps[i] + 1, sleepSteps) : 0;
+            if(b.restSteps[i] == sleepSteps)
+                restedBodies++;
+        }
+        if(step < nextCheck || restedBodies == 0)
+            return;
+        int wasSleeping = sleepingBodies;
+        int count = b.count;
+        ensureCapacity(b);
+        for(int i = 0; i < count; i++)
+            parent[i] = i;
+        for(int e = 0; e < springs.edgeCount; e++)
+            union(springs.from[e], springs.to[e]);
+        bodies = b;
+        margin = config.sleepContactMargin;
+        grid.build(b, SpatialGrid.cellSizeFor(b, config) + margin);
+        grid.forEachPair(b, contact);
+        bodies = null;
+    
+        Arrays.fill(rested, 0, count, true);
+        for(int i = 0; i < count; i++) {
+            int root = find(i);
+            islandOf[i] = root;
+            if(!b.sleeping[i] && (b.restSteps[i] < sleepSteps || b.cluster[i] >= 0))
+                rested[root] = false;
+        }
+        sleepingBodies = 0;
+        for(int i = 0; i < count; i++) {
+            boolean sleep = rested[islandOf[i]];
+            if(sleep) {
+                b.speedX[i] = 0;
+                b.speedY[i] = 0;
+                sleepingBodies++;
+            } else if(b.sleeping[i]) {
+                b.restSteps[i] = 0;
+            }
+            b.sleeping[i] = sleep;
+        }
+    
+        buildMembers(count);
+        evaluatedCount = count;
+        collectedCount = -1;
+        backoff = sleepingBodies > wasSleeping ? 1 : Math.min(backoff * 2, MAX_BACKOFF);
+        nextCheck = step + (long)config.sleepCheckInterval * backoff;
+    }
+    
+    /**
+     * Lists the members of every island, so a single body can wake its island.
+     */
+    private void buildMembers(int count) {
+        Arrays.fill(islandStart, 0, count + 1, 0);
+        for(int i = 0; i < count; i++)
+            islandStart[islandOf[i] + 1]++;
+        for(int i = 0; i < count; i++)
+            islandStart[i + 1] += islandStart[i];
+        for(int i = 0; i < count; i++)
+            islandMembers[islandStart[islandOf[i]]++] = i;
+        for(int i = count; i > 0; i--)
+            islandStart[i] = islandStart[i - 1];
+        islandStart[0] = 0;
+    }
+    
+    /**
+     * Root of the island of i at the last evaluation, i itself for bodies added after it.
+     */
+    int island(int i) {
+        return i < evaluatedCount ? islandOf[i] : i;
+    }
+    
+    int evaluatedCount() {
+        return evaluatedCount;
+    }
+    
+    int backoff() {
+        return backoff;
+    }
+    
+    long nextCheck() {
+        return nextCheck;
+    }
+    
+    /**
+     * Takes over the islands and the schedule of a saved world, whose sleeping
+     * flags are already in b, so its islands wake up as they would have there.
+     */
+    void restore(Bodies b, int[] island, int evaluatedCount, int backoff, long nextCheck) {
+        ensureCapacity(b);
+        System.arraycopy(island, 0, islandOf, 0, evaluatedCount);
+        buildMembers(evaluatedCount);
+        this.evaluatedCount = evaluatedCount;
+        this.backoff = backoff;
+        this.nextCheck = nextCheck;
+        sleepingBodies = 0;
+        for(int i = 0; i < b.count; i++)
+            if(b.sleeping[i])
+                sleepingBodies++;
+        collectedCount = -1;
+    }
+    
+    /**
+     * Grows the buffers of the awake list and of the island search together,
+     * so the first search doesn't allocate in the middle of a run.
+     */
+    private void ensureCapacity(Bodies b) {
+        if(awake.length >= b.count)
+            return;
+        int capacity = b.x.length;
+        awake = new int[capacity];
+        runStart = new int[capacity];
+        runEnd = new int[capacity];
+        parent = new int[capacity];
+        islandOf = new int[capacity];
+        islandMembers = new int[capacity];
+        islandStart = new int[capacity + 1];
+        rested = new boolean[capacity];
+    }
+    
+    /**
+     * Wakes the island of a sleeping body.
+     */
+    void wake(Bodies b, int i) {
+        if(!b.sleeping[i])
+            return;
+        if(i >= evaluatedCount) {
+            b.sleeping[i] = false;
+            sleepingBodies--;
+        } else {
+            int root = islandOf[i];
+            for(int k = islandStart[root]; k < islandStart[root + 1]; k++) {
+                int member = islandMembers[k];
+                if(b.sleeping[member]) {
+                    b.sleeping[member] = false;
+                    b.restSteps[member] = 0;
+                    sleepingBodies--;
+                }
+            }
+        }
+        collectedCount = -1;
+    }
+    
+    /**
+     * Makes the next collectAwake rebuild the awake list, for when bodies
+     * joined or left a coarse cluster.
+     */
+    void awakeChanged() {
+        collectedCount = -1;
+    }
+    
+    /**
+     * Wakes every body, for code paths that don't know about sleeping.
+     */
+    void wakeAll(Bodies b) {
+        Arrays.fill(b.sleeping, false);
+        Arrays.fill(b.restSteps, 0);
+        sleepingBodies = 0;
+        evaluatedCount = 0;
+        collectedCount = -1;
+        backoff = 1;
+        nextCheck = 0;
+    }
+    
+    /**
+     * True if the bounding boxes of i and j are closer than margin.
+     */
+    static boolean touching(Bodies b, int i, int j, double margin) {
+        return b.minX(i) - margin <= b.maxX(j) && b.minX(j) - margin <= b.maxX(i)
+                && b.minY(i) - margin <= b.maxY(j) && b.minY(j) - margin <= b.maxY(i);
+    }
+    
+    private int find(int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+    
+    private void union(int i, int j) {
+        int a = find(i);
+        int b = find(j);
+        if(a == b) return;
+        // the smaller index becomes the root, which keeps the result independent of the pair order
+        if(a < b)
+            parent[b] = a;
+        else
+            parent[a] = b;
+    }
+
+}
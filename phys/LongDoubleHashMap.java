@@ -0,0 +1,93 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative long keys to doubles.
+ */
+public class LongDoubleHashMap {
+    
+    private static final long EMPTY = -1;
+    
+    private long[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+    
+    public LongDoubleHashMap() {
+        keys = new long[16];
+        values = new double[16];
+        Arrays.fill(keys, EMPTY);
+        mask = 15;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+    
+    public double get(long key, double otherwise) {
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return otherwise;
+    }
+    
+    public void put(long key, double value) {
+        if((size + 1) * 2 > keys.length)
+            rehash(keys.length * 2);
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+    
+    /**
+     * Copies every entry into keys and values, in no particular order, and returns their number.
+     */
+    public int copyTo(long[] keys, double[] values) {
+        int n = 0;
+        for(int slot = 0; slot < this.keys.length; slot++) {
+            if(this.keys[slot] != EMPTY) {
+                keys[n] = this.keys[slot];
+                values[n++] = this.values[slot];
+            }
+        }
+        return n;
+    }
+    
+    public void clear() {
+        if(size == 0)
+            return;
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+    
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new long[tableSize];
+        values = new double[tableSize];
+        Arrays.fill(keys, EMPTY);
+        mask = tableSize - 1;
+        size = 0;
+        for(int slot = 0; slot < oldKeys.length; slot++)
+            if(oldKeys[slot] != EMPTY)
+                put(oldKeys[slot], oldValues[slot]);
+    }
+
+}
@@ -0,0 +1,134 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of non-negative long keys.
+ */
+public class LongHashSet {
+    
+    private static final long EMPTY = -1;
+    
+    private long[] keys;
+    private int size;
+    private int mask;
+    
+    public LongHashSet() {
+        this(16);
+    }
+    
+    public LongHashSet(int capacity) {
+        int tableSize = 16;
+        while(tableSize < capacity * 2)
+            tableSize *= 2;
+        keys = new long[tableSize];
+        Arrays.fill(keys, EMPTY);
+        mask = tableSize - 1;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void ensureCapacity(int capacity) {
+        if(capacity * 2 > keys.length) {
+            int tableSize = keys.length;
+            while(tableSize < capacity * 2)
+                tableSize *= 2;
+            rehash(tableSize);
+        }
+    }
+    
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+    
+    public boolean contains(long key) {
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+    
+    public boolean add(long key) {
+        if((size + 1) * 2 > keys.length)
+            rehash(keys.length * 2);
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        return true;
+    }
+    
+    /**
+     * Adds the first count values and returns how many of them were new.
+     * The values are first grouped by the part of the table they hash to and
+     * then added group by group, so a set much larger than the cache is
+     * filled a small window at a time instead of at random places.
+     */
+    public int addAll(long[] values, int count) {
+        ensureCapacity(size + count);
+        int shift = Math.max(0, Integer.numberOfTrailingZeros(keys.length) - 12);
+        int[] next = new int[(keys.length >>> shift) + 1];
+        for(int k = 0; k < count; k++)
+            next[((hash(values[k]) & mask) >>> shift) + 1]++;
+        for(int g = 1; g < next.length; g++)
+            next[g] += next[g - 1];
+        long[] grouped = new long[count];
+        for(int k = 0; k < count; k++)
+            grouped[next[(hash(values[k]) & mask) >>> shift]++] = values[k];
+        int added = 0;
+        for(int k = 0; k < count; k++)
+            if(add(grouped[k]))
+                added++;
+        return added;
+    }
+    
+    public boolean remove(long key) {
+        int slot = hash(key) & mask;
+        while(keys[slot] != key) {
+            if(keys[slot] == EMPTY)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        // backward shift deletion keeps probe sequences intact without tombstones
+        int hole = slot;
+        slot = (slot + 1) & mask;
+        while(keys[slot] != EMPTY) {
+            int home = hash(keys[slot]) & mask;
+            if(((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        size--;
+        return true;
+    }
+    
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+    
+    private void rehash(int tableSize) {
+        long[] old = keys;
+        keys = new long[tableSize];
+        Arrays.fill(keys, EMPTY);
+        mask = tableSize - 1;
+        size = 0;
+        for(long key : old)
+            if(key != EMPTY)
+                add(key);
+    }
+    
+}
@@ -0,0 +1,274 @@
+package phys;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-phase timings and per-step counters of a World. Every phase keeps a
+ * moving average of its last durations and a log-linear histogram with four
+ * buckets per power of two, so recording a sample is a few array writes.
+ * Fields are written by the simulation thread (and the paint thread for
+ * PAINT) and read without locking, readers may see slightly stale values.
+ */
+public class Metrics implements MetricsMXBean {
+    
+    static final int GRAVITY = 0;
+    static final int VERTICAL_GRAVITY = 1;
+    static final int SPRING_DISCOVERY = 2;
+    static final int SPRING_FORCES = 3;
+    static final int FRICTION = 4;
+    static final int MOVE = 5;
+    static final int COLLISIONS = 6;
+    static final int PAINT = 7;
+    static final String[] PHASE_NAMES = {
+        "gravity", "vertical gravity", "spring discovery", "spring forces",
+        "friction", "move", "collisions", "paint"
+    };
+    static final int PHASES = PHASE_NAMES.length;
+    private static final int BUCKETS = 256;
+    
+    final double[] average = new double[PHASES];
+    final long[][] histogram = new long[PHASES][BUCKETS];
+    final long[] samples = new long[PHASES];
+    final long[] totalTime = new long[PHASES];
+    
+    long steps;
+    int bodies, springs;
+    int springsCreated, springsBroken;
+    // every unordered pair counts once, whichever step mode visits it
+    int pairsTested, pairsResolved;
+    int substeps = 1;
+    int sleeping;
+    int coarse;
+    long totalSpringsCreated, totalSpringsBroken;
+    long totalPairsTested, totalPairsResolved;
+    
+    private ScheduledExecutorService csvWriter;
+    private PrintWriter csvOut;
+    
+    static int bucket(long nanos) {
+        if(nanos < 4)
+            return (int)Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return (exponent - 1) * 4 + (int)((nanos >>> (exponent - 2)) & 3);
+    }
+    
+    /**
+     * Smallest duration that falls into the bucket.
+     */
+    static long bucketValue(int bucket) {
+        if(bucket < 4)
+            return bucket;
+        int exponent = bucket / 4 + 1;
+        return (4L + bucket % 4) << (exponent - 2);
+    }
+    
+    /**
+     * Records the time since start for a phase and returns the current time,
+     * so consecutive phases need a single nanoTime call each.
+     */
+    long phase(int phase, long start) {
+        long now = System.nanoTime();
+        record(phase, now - start);
+        return now;
+    }
+    
+    void record(int phase, long nanos) {
+        histogram[phase][bucket(nanos)]++;
+        samples[phase]++;
+        totalTime[phase] += nanos;
+        average[phase] = samples[phase] == 1 ? nanos : average[phase] * 0.95 + nanos * 0.05;
+    }
+    
+    void beginStep() {
+        springsCreated = 0;
+        springsBroken = 0;
+        pairsTested = 0;
+        pairsResolved = 0;
+    }
+    
+    void endStep(int bodies, int springs) {
+        steps++;
+        this.bodies = bodies;
+        this.springs = springs;
+        totalSpringsCreated += springsCreated;
+        totalSpringsBroken += springsBroken;
+        totalPairsTested += pairsTested;
+        totalPairsResolved += pairsResolved;
+    }
+    
+    /**
+     * Duration below which the given fraction of the recorded samples of a phase fall.
+     */
+    public double percentileMillis(int phase, double fraction) {
+        return percentile(histogram[phase], samples[phase], fraction) / 1e6;
+    }
+    
+    private static double percentile(long[] histogram, long samples, double fraction) {
+        long target = (long)Math.ceil(samples * fraction);
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+            seen += histogram[b];
+            if(seen >= target && seen > 0)
+                return bucketValue(b + 1);
+        }
+        return 0;
+    }
+    
+    public double averageMillis(int phase) {
+        return average[phase] / 1e6;
+    }
+    
+    /**
+     * Registers these metrics as phys:type=Metrics,name=... in the platform MBean server.
+     */
+    public void register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("phys:type=Metrics,name=" + ObjectName.quote(name));
+            if(server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        } catch(JMException e) {
+            System.out.println("Could not register metrics: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Appends a line to a CSV file every period, with counter totals and the
+     * average and 99th percentile of every phase over that period.
+     */
+    public void startCsv(final String path, long periodMillis) throws IOException {
+        stopCsv();
+        final PrintWriter out = new PrintWriter(new FileWriter(path, true));
+        csvOut = out;
+        StringBuilder header = new StringBuilder("time,steps,bodies,springs,springs created,springs broken,pairs tested,pairs resolved");
+        for(String name : PHASE_NAMES)
+            header.append(',').append(name).append(" avg ms,").append(name).append(" p99 ms");
+        out.println(header);
+        out.flush();
+        final long[][] lastHistogram = new long[PHASES][BUCKETS];
+        final long[] lastSamples = new long[PHASES];
+        final long[] lastTime = new long[PHASES];
+        final long[] interval = new long[BUCKETS];
+        csvWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-csv");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        csvWriter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder line = new StringBuilder();
+                line.append(System.currentTimeMillis()).append(',').append(steps).append(',')
+                        .append(bodies).append(',').append(springs).append(',')
+                        .append(totalSpringsCreated).append(',').append(totalSpringsBroken).append(',')
+                        .append(totalPairsTested).append(',').append(totalPairsResolved);
+                for(int p = 0; p < PHASES; p++) {
+                    long count = samples[p] - lastSamples[p];
+                    long time = totalTime[p] - lastTime[p];
+                    for(int b = 0; b < BUCKETS; b++) {
+                        long value = histogram[p][b];
+                        interval[b] = value - lastHistogram[p][b];
+                        lastHistogram[p][b] = value;
+                    }
+                    lastSamples[p] += count;
+                    lastTime[p] += time;
+                    line.append(String.format(",%.4f,%.4f", count > 0 ? time / 1e6 / count : 0,
+                            percentile(interval, count, 0.99) / 1e6));
+                }
+                out.println(line);
+                out.flush();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void stopCsv() {
+        if(csvWriter != null) {
+            csvWriter.shutdown();
+            try {
+                csvWriter.awaitTermination(1, TimeUnit.SECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            csvOut.close();
+            csvWriter = null;
+        }
+    }
+    
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+    
+    @Override
+    public int getBodies() {
+        return bodies;
+    }
+    
+    @Override
+    public int getSprings() {
+        return springs;
+    }
+    
+    @Override
+    public int getSleepingBodies() {
+        return sleeping;
+    }
+    
+    @Override
+    public int getCoarseBodies() {
+        return coarse;
+    }
+    
+    @Override
+    public long getSpringsCreated() {
+        return totalSpringsCreated;
+    }
+    
+    @Override
+    public long getSpringsBroken() {
+        return totalSpringsBroken;
+    }
+    
+    @Override
+    public long getPairsTested() {
+        return totalPairsTested;
+    }
+    
+    @Override
+    public long getPairsResolved() {
+        return totalPairsResolved;
+    }
+    
+    @Override
+    public Map<String, Double> getAverageMillis() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for(int p = 0; p < PHASES; p++)
+            result.put(PHASE_NAMES[p], averageMillis(p));
+        return result;
+    }
+    
+    @Override
+    public Map<String, Double> getP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for(int p = 0; p < PHASES; p++)
+            result.put(PHASE_NAMES[p], percentileMillis(p, 0.99));
+        return result;
+    }
+
+}
@@ -0,0 +1,32 @@
+package phys;
+
+import java.util.Map;
+
+/**
+ * Management interface of Metrics. Counters are totals since the world was created.
+ */
+public interface MetricsMXBean {
+    
+    long getSteps();
+    
+    int getBodies();
+    
+    int getSprings();
+    
+    int getSleepingBodies();
+    
+    int getCoarseBodies();
+    
+    long getSpringsCreated();
+    
+    long getSpringsBroken();
+    
+    long getPairsTested();
+    
+    long getPairsResolved();
+    
+    Map<String, Double> getAverageMillis();
+    
+    Map<String, Double> getP99Millis();
+
+}
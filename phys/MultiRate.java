@@ -0,0 +1,318 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Multi-rate stepping for large, mostly quiet spring sheets. Every
+ * multiRateCheckInterval steps the world is divided into square regions of
+ * multiRateRegionSize. A region is quiet when none of its bodies is faster
+ * than multiRateMaxSpeed or touches a wall and none of their springs is
+ * strained by more than multiRateMaxStrain, and a quiet region whose
+ * neighbours are quiet as well becomes a coarse cluster, so anything that
+ * moves keeps a margin of bodies at the full rate around it.
+ * Coarse bodies are left out of the per-body passes and the springs and
+ * pairs inside a cluster are skipped. Every multiRateInterval steps a cluster
+ * is advanced as a whole: its bodies move together with the speed of the
+ * cluster for the elapsed time, the forces on them are applied and they all
+ * get the speed of the cluster's momentum. Springs from outside and
+ * collisions still act on coarse bodies every step and end up in that
+ * momentum. A hit, a strained spring, a wall or a cluster that got fast
+ * releases the cluster back to the full rate right away instead of at the
+ * next check, and then its bodies keep the speeds they got since the last
+ * advance, so an impact isn't spread over the whole cluster.
+ */
+public class MultiRate {
+    
+    private int[] regionOf = new int[0];
+    private boolean[] hot = new boolean[0];
+    private boolean[] quiet = new boolean[0];
+    private int regions;
+    
+    // clusters are the quiet regions, with their members in index order
+    int[] clusterStart = new int[1];
+    int[] clusterMembers = new int[0];
+    private boolean[] alive = new boolean[0];
+    private boolean[] releasing = new boolean[0];
+    private long[] nextStep = new long[0];
+    private double[] lastTime = new double[0];
+    private double[] speedX = new double[0], speedY = new double[0];
+    private int[] releaseQueue = new int[0];
+    private int releaseCount;
+    private int coarseBodies;
+    private long nextCheck;
+    private double time;
+    
+    public boolean anyCoarse() {
+        return coarseBodies > 0;
+    }
+    
+    public int coarseBodies() {
+        return coarseBodies;
+    }
+    
+    int clusterCount() {
+        return regions;
+    }
+    
+    void advanceTime(double delta) {
+        time += delta;
+    }
+    
+    boolean checkDue(long step) {
+        return step >= nextCheck;
+    }
+    
+    boolean alive(int cluster) {
+        return alive[cluster];
+    }
+    
+    boolean due(int cluster, long step) {
+        return releasing[cluster] || step >= nextStep[cluster];
+    }
+    
+    boolean releasing(int cluster) {
+        return releasing[cluster];
+    }
+    
+    /**
+     * Time since the cluster was last advanced, and marks it as advanced now.
+     */
+    double elapsed(int cluster, long step, Config config) {
+        double delta = time - lastTime[cluster];
+        lastTime[cluster] = time;
+        nextStep[cluster] = step + config.multiRateInterval;
+        return delta;
+    }
+    
+    /**
+     * Releases the cluster of a coarse body before the next step, for hits
+     * and strained springs found during the passes.
+     */
+    void release(Bodies b, int i) {
+        int cluster = b.cluster[i];
+        if(cluster < 0 || releasing[cluster])
+            return;
+        releasing[cluster] = true;
+        releaseQueue[releaseCount++] = cluster;
+    }
+    
+    /**
+     * Releases the clusters of a spring that is more strained than a coarse
+     * cluster allows.
+     */
+    void checkSpring(Config config, Bodies b, int i, int j) {
+        double distance = Utils.distance(b.x[i], b.x[j], b.y[i], b.y[j]);
+        if(!(Math.abs(distance - config.springDistance) <= config.multiRateMaxStrain * config.springDistance)) {
+            release(b, i);
+            release(b, j);
+        }
+    }
+    
+    boolean anyReleasing() {
+        return releaseCount > 0;
+    }
+    
+    /**
+     * Puts the members of the queued clusters back to the full rate. They
+     * have to be advanced to the current time first.
+     */
+    void releaseQueued(Bodies b) {
+        for(int k = 0; k < releaseCount; k++)
+            dissolve(b, releaseQueue[k]);
+        releaseCount = 0;
+    }
+    
+    private void dissolve(Bodies b, int cluster) {
+        if(!alive[cluster])
+            return;
+        for(int k = clusterStart[cluster]; k < clusterStart[cluster + 1]; k++)
+            b.cluster[clusterMembers[k]] = -1;
+        coarseBodies -= clusterStart[cluster + 1] - clusterStart[cluster];
+        alive[cluster] = false;
+        releasing[cluster] = false;
+    }
+    
+    /**
+     * Moves the members of the cluster with the speed of the cluster.
+     */
+    void move(Bodies b, int cluster, double width, double height, double delta) {
+        double dx = speedX[cluster] * delta, dy = speedY[cluster] * delta;
+        for(int k = clusterStart[cluster]; k < clusterStart[cluster + 1]; k++) {
+            int i = clusterMembers[k];
+            b.x[i] += dx;
+            b.y[i] += dy;
+            PhysObject.clamp(b, i, 0, 0, width, height);
+        }
+    }
+    
+    /**
+     * Gives every member of the cluster the speed of the cluster's momentum,
+     * and releases the cluster next step if that is too fast or a member
+     * touches a wall.
+     */
+    void shareMomentum(Bodies b, int cluster, Config config) {
+        double mass = 0, momentumX = 0, momentumY = 0;
+        for(int k = clusterStart[cluster]; k < clusterStart[cluster + 1]; k++) {
+            int i = clusterMembers[k];
+            mass += b.mass[i];
+            momentumX += b.mass[i] * b.speedX[i];
+            momentumY += b.mass[i] * b.speedY[i];
+        }
+        double speedX = momentumX / mass, speedY = momentumY / mass;
+        for(int k = clusterStart[cluster]; k < clusterStart[cluster + 1]; k++) {
+            int i = clusterMembers[k];
+            b.speedX[i] = speedX;
+            b.speedY[i] = speedY;
+        }
+        this.speedX[cluster] = speedX;
+        this.speedY[cluster] = speedY;
+        if(!(speedX * speedX + speedY * speedY <= config.multiRateMaxSpeed * config.multiRateMaxSpeed))
+            release(b, clusterMembers[clusterStart[cluster]]);
+    }
+    
+    void checkWalls(Bodies b, int cluster, double width, double height) {
+        for(int k = clusterStart[cluster]; k < clusterStart[cluster + 1]; k++) {
+            int i = clusterMembers[k];
+            if(touchesWall(b, i, width, height)) {
+                release(b, i);
+                return;
+            }
+        }
+    }
+    
+    private static boolean touchesWall(Bodies b, int i, double width, double height) {
+        return b.minX(i) <= 0 || b.minY(i) <= 0 || b.maxX(i) >= width || b.maxY(i) >= height;
+    }
+    
+    /**
+     * Divides the bodies into regions and makes the quiet ones coarse
+     * clusters. All clusters have to be advanced to the current time first.
+     */
+    void partition(Bodies b, SpringGraph springs, Config config, double width, double height, long step) {
+        int count = b.count;
+        Arrays.fill(b.cluster, 0, count, -1);
+        coarseBodies = 0;
+        releaseCount = 0;
+        nextCheck = step + config.multiRateCheckInterval;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++) {
+            minX = Math.min(minX, b.x[i]);
+            minY = Math.min(minY, b.y[i]);
+            maxX = Math.max(maxX, b.x[i]);
+            maxY = Math.max(maxY, b.y[i]);
+        }
+        if(count == 0 || !(maxX - minX < Double.POSITIVE_INFINITY) || !(maxY - minY < Double.POSITIVE_INFINITY)) {
+            regions = 0;
+            return;
+        }
+        // at most about one region per body, like the cells of SpatialGrid
+        double size = config.multiRateRegionSize;
+        int columns, rows;
+        while(true) {
+            columns = (int)((maxX - minX) / size) + 1;
+            rows = (int)((maxY - minY) / size) + 1;
+            if((long)columns * rows <= count + 16)
+                break;
+            size *= 2;
+        }
+        regions = columns * rows;
+        ensureCapacity(b, regions);
+        Arrays.fill(hot, 0, regions, false);
+        double maxSpeed2 = config.multiRateMaxSpeed * config.multiRateMaxSpeed;
+        for(int i = 0; i < count; i++) {
+            int column = Math.min(columns - 1, (int)((b.x[i] - minX) / size));
+            int row = Math.min(rows - 1, (int)((b.y[i] - minY) / size));
+            int region = row * columns + column;
+            regionOf[i] = region;
+            double speed2 = b.speedX[i] * b.speedX[i] + b.speedY[i] * b.speedY[i];
+            if(!(speed2 <= maxSpeed2) || touchesWall(b, i, width, height))
+                hot[region] = true;
+        }
+        double maxOffset = config.multiRateMaxStrain * config.springDistance;
+        for(int e = 0; e < springs.edgeCount; e++) {
+            int i = springs.from[e], j = springs.to[e];
+            double distance = Utils.distance(b.x[i], b.x[j], b.y[i], b.y[j]);
+            if(!(Math.abs(distance - config.springDistance) <= maxOffset)) {
+                hot[regionOf[i]] = true;
+                hot[regionOf[j]] = true;
+            }
+        }
+        for(int row = 0; row < rows; row++) {
+            for(int column = 0; column < columns; column++) {
+                boolean calm = true;
+                for(int y = Math.max(0, row - 1); y <= Math.min(rows - 1, row + 1) && calm; y++)
+                    for(int x = Math.max(0, column - 1); x <= Math.min(columns - 1, column + 1); x++)
+                        calm &= !hot[y * columns + x];
+                quiet[row * columns + column] = calm;
+            }
+        }
+    
+        // counting sort of the coarse bodies by cluster, sleeping bodies stay out
+        Arrays.fill(clusterStart, 0, regions + 1, 0);
+        for(int i = 0; i < count; i++) {
+            if(quiet[regionOf[i]] && !b.sleeping[i]) {
+                b.cluster[i] = regionOf[i];
+                clusterStart[regionOf[i] + 1]++;
+                coarseBodies++;
+            }
+        }
+        for(int c = 0; c < regions; c++)
+            clusterStart[c + 1] += clusterStart[c];
+        for(int i = 0; i < count; i++)
+            if(b.cluster[i] >= 0)
+                clusterMembers[clusterStart[b.cluster[i]]++] = i;
+        for(int c = regions; c > 0; c--)
+            clusterStart[c] = clusterStart[c - 1];
+        clusterStart[0] = 0;
+        for(int c = 0; c < regions; c++) {
+            alive[c] = clusterStart[c + 1] > clusterStart[c];
+            releasing[c] = false;
+            lastTime[c] = time;
+            if(alive[c])
+                shareMomentum(b, c, config);
+            // spread the clusters over the interval, so not all of them are advanced in the same step
+            nextStep[c] = step + 1 + c % config.multiRateInterval;
+        }
+    }
+    
+    private void ensureCapacity(Bodies b, int regions) {
+        if(regionOf.length < b.count) {
+            regionOf = new int[b.x.length];
+            clusterMembers = new int[b.x.length];
+        }
+        if(hot.length < regions) {
+            int capacity = Math.max(regions, hot.length * 2);
+            hot = new boolean[capacity];
+            quiet = new boolean[capacity];
+            alive = new boolean[capacity];
+            releasing = new boolean[capacity];
+            nextStep = new long[capacity];
+            lastTime = new double[capacity];
+            speedX = new double[capacity];
+            speedY = new double[capacity];
+            releaseQueue = new int[capacity];
+            clusterStart = new int[capacity + 1];
+        }
+    }
+    
+    /**
+     * Puts every body back to the full rate, for when multi-rate stepping is
+     * turned off. All clusters have to be advanced to the current time first.
+     */
+    void releaseAll(Bodies b) {
+        Arrays.fill(b.cluster, 0, b.count, -1);
+        Arrays.fill(alive, 0, regions, false);
+        Arrays.fill(releasing, 0, regions, false);
+        coarseBodies = 0;
+        releaseCount = 0;
+        nextCheck = 0;
+    }
+    
+    void clear(Bodies b) {
+        releaseAll(b);
+        regions = 0;
+        time = 0;
+    }
+
+}
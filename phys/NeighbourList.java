@@ -0,0 +1,104 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Verlet neighbour list: every pair closer than the grid cutoff plus a skin
+ * distance is cached, and the list is only rebuilt once some body has moved
+ * more than half the skin since the last build. Until then no pair can have
+ * come closer than the cutoff without being in the list.
+ */
+public class NeighbourList {
+    
+    private int[] start = new int[1];
+    private int[] neighbours = new int[64];
+    private double[] builtX = new double[0], builtY = new double[0];
+    private int builtCount = -1;
+    private double cutoff;
+    private double radius;
+    int rebuilds;
+    
+    private final PairVisitor collector = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            if(pairCount == neighbours.length)
+                neighbours = Arrays.copyOf(neighbours, pairCount * 2);
+            neighbours[pairCount++] = j;
+        }
+    };
+    private int pairCount;
+    
+    /**
+     * Rebuilds the list if it no longer covers all pairs within the cutoff,
+     * returns true if it did.
+     */
+    public boolean update(Bodies bodies, SpatialGrid grid, Config config) {
+        double cutoff = SpatialGrid.cellSizeFor(bodies, config);
+        if(!needsRebuild(bodies, cutoff, config.neighbourSkin))
+            return false;
+        build(bodies, grid, cutoff, config.neighbourSkin);
+        return true;
+    }
+    
+    private boolean needsRebuild(Bodies bodies, double cutoff, double skin) {
+        if(bodies.count != builtCount || cutoff > this.cutoff)
+            return true;
+        double limit = skin * skin / 4;
+        for(int i = 0; i < builtCount; i++) {
+            double dx = bodies.x[i] - builtX[i];
+            double dy = bodies.y[i] - builtY[i];
+            if(!(dx * dx + dy * dy <= limit))
+                return true;
+        }
+        return false;
+    }
+    
+    private void build(Bodies bodies, SpatialGrid grid, double cutoff, double skin) {
+        int count = bodies.count;
+        this.cutoff = cutoff;
+        radius = cutoff + skin;
+        if(start.length < count + 1)
+            start = new int[count + 1];
+        if(builtX.length < count) {
+            builtX = new double[bodies.x.length];
+            builtY = new double[bodies.x.length];
+        }
+        System.arraycopy(bodies.x, 0, builtX, 0, count);
+        System.arraycopy(bodies.y, 0, builtY, 0, count);
+        builtCount = count;
+        grid.build(bodies, radius);
+        pairCount = 0;
+        double radiusSquared = radius * radius;
+        for(int i = 0; i < count; i++) {
+            start[i] = pairCount;
+            grid.forEachNeighbour(i, collector);
+            // drop the pairs of the 3x3 cells that are further away than the radius
+            int write = start[i];
+            for(int k = start[i]; k < pairCount; k++) {
+                int j = neighbours[k];
+                double dx = bodies.x[j] - bodies.x[i];
+                double dy = bodies.y[j] - bodies.y[i];
+                if(dx * dx + dy * dy < radiusSquared)
+                    neighbours[write++] = j;
+            }
+            pairCount = write;
+        }
+        start[count] = pairCount;
+        rebuilds++;
+    }
+    
+    public void forEachPair(PairVisitor visitor) {
+        for(int i = 0; i < builtCount; i++)
+            forEachNeighbour(i, visitor);
+    }
+    
+    public void forEachNeighbour(int i, PairVisitor visitor) {
+        for(int k = start[i]; k < start[i + 1]; k++)
+            visitor.visit(i, neighbours[k]);
+    }
+    
+    public void clear() {
+        builtCount = -1;
+    }
+
+}
@@ -0,0 +1,5 @@
+package phys;
+
+abstract class PairVisitor {
+    public abstract void visit(int i, int j);
+}
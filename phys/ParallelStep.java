@@ -0,0 +1,346 @@
+package phys;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a simulation step on a ForkJoinPool. Bodies are split into fixed
+ * chunks and every pass only writes to the bodies of its own chunk, while
+ * reading the others from a snapshot taken before the pass. Because of that
+ * the result doesn't depend on the thread count or on scheduling.
+ */
+public class ParallelStep {
+    
+    private static final int GRAVITY = 0;
+    private static final int VERTICAL_GRAVITY = 1;
+    private static final int SPRING_DISCOVERY = 2;
+    private static final int SPRING_FORCES = 3;
+    private static final int FRICTION = 4;
+    private static final int MOVE = 5;
+    private static final int COLLISIONS = 6;
+    private static final int SNAPSHOT = 7;
+    private static final int CHUNKS_PER_THREAD = 4;
+    
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+    private final RecursiveAction root;
+    
+    private int phase;
+    private Config config;
+    private Bodies bodies;
+    private SpringGraph springs;
+    private SpatialGrid grid;
+    private NeighbourList neighbours;
+    private boolean useNeighbours;
+    private QuadTree quadTree;
+    private double width, height, delta;
+    private Metrics metrics;
+    
+    private double[] x = new double[0], y = new double[0];
+    private double[] speedX = new double[0], speedY = new double[0];
+    private int[] edgeStart = new int[1];
+    private int[] edgeOrder = new int[0];
+    private boolean[] broken = new boolean[0];
+    
+    public ParallelStep(int threads) {
+        pool = new ForkJoinPool(threads);
+        chunks = new Chunk[threads * CHUNKS_PER_THREAD];
+        for(int c = 0; c < chunks.length; c++)
+            chunks[c] = new Chunk();
+        root = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        };
+    }
+    
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+    
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    public void step(Config config, Bodies bodies, SpringGraph springs, SpatialGrid grid, NeighbourList neighbours,
+            QuadTree quadTree, double width, double height, double delta, Metrics metrics) {
+        this.config = config;
+        this.bodies = bodies;
+        this.metrics = metrics;
+        this.springs = springs;
+        this.grid = grid;
+        this.neighbours = neighbours;
+        useNeighbours = config.broadphaseEnabled && config.neighbourListEnabled;
+        this.quadTree = quadTree;
+        this.width = width;
+        this.height = height;
+        this.delta = delta;
+        int count = bodies.count;
+        if(x.length < count) {
+            x = new double[count];
+            y = new double[count];
+            speedX = new double[count];
+            speedY = new double[count];
+        }
+        
+        long time = System.nanoTime();
+        if(config.gravityRadialEnabled) {
+            if(config.barnesHutEnabled)
+                quadTree.build(bodies);
+            run(GRAVITY);
+            time = metrics.phase(Metrics.GRAVITY, time);
+        }
+        if(config.gravityVerticalEnabled) {
+            run(VERTICAL_GRAVITY);
+            time = metrics.phase(Metrics.VERTICAL_GRAVITY, time);
+        }
+        if(config.springsEnabled) {
+            springs.ensureBodies(count);
+            if(useNeighbours)
+                neighbours.update(bodies, grid, config);
+            else if(config.broadphaseEnabled)
+                grid.build(bodies, SpatialGrid.cellSizeFor(bodies, config));
+            run(SPRING_DISCOVERY);
+            // limits on the number of connections depend on order, so new springs are added sequentially
+            for(Chunk chunk : chunks)
+                for(int k = 0; k < chunk.candidateCount; k += 2)
+                    connectSpring(chunk.candidates[k], chunk.candidates[k + 1]);
+            time = metrics.phase(Metrics.SPRING_DISCOVERY, time);
+            sortEdges(count);
+            run(SNAPSHOT);
+            run(SPRING_FORCES);
+            for(int e = 0; e < springs.edgeCount; e++)
+                if(broken[e])
+                    springs.markBroken(e);
+            metrics.springsBroken += springs.removeBroken();
+            time = metrics.phase(Metrics.SPRING_FORCES, time);
+        }
+        if(config.backgroundFrictionEnabled) {
+            run(FRICTION);
+            time = metrics.phase(Metrics.FRICTION, time);
+        }
+        run(MOVE);
+        time = metrics.phase(Metrics.MOVE, time);
+        if(config.collisionsEnabled) {
+            if(useNeighbours)
+                neighbours.update(bodies, grid, config);
+            else if(config.broadphaseEnabled)
+                grid.build(bodies, SpatialGrid.cellSizeFor(bodies, config));
+            run(SNAPSHOT);
+            run(COLLISIONS);
+            // both bodies of a pair visit it, only the lower index counts it
+            for(Chunk chunk : chunks) {
+                metrics.pairsTested += chunk.pairsTested;
+                metrics.pairsResolved += chunk.pairsResolved;
+            }
+            metrics.phase(Metrics.COLLISIONS, time);
+        }
+    }
+    
+    private void connectSpring(int i, int j) {
+        if(springs.outgoing[i] >= config.springMaxConnections) return;
+        if(springs.incoming[j] >= config.springMaxConnections) return;
+        if(springs.add(i, j))
+            metrics.springsCreated++;
+    }
+    
+    /**
+     * Groups edges by their source body, so every chunk can find the springs it owns.
+     */
+    private void sortEdges(int count) {
+        int edges = springs.edgeCount;
+        if(edgeStart.length < count + 1)
+            edgeStart = new int[count + 1];
+        if(edgeOrder.length < edges) {
+            edgeOrder = new int[springs.from.length];
+            broken = new boolean[springs.from.length];
+        }
+        Arrays.fill(edgeStart, 0, count + 1, 0);
+        for(int e = 0; e < edges; e++)
+            edgeStart[springs.from[e] + 1]++;
+        for(int i = 0; i < count; i++)
+            edgeStart[i + 1] += edgeStart[i];
+        for(int e = 0; e < edges; e++)
+            edgeOrder[edgeStart[springs.from[e]]++] = e;
+        for(int i = count; i > 0; i--)
+            edgeStart[i] = edgeStart[i - 1];
+        edgeStart[0] = 0;
+    }
+    
+    private void run(int phase) {
+        this.phase = phase;
+        int count = bodies.count;
+        int size = (count + chunks.length - 1) / chunks.length;
+        for(int c = 0; c < chunks.length; c++) {
+            chunks[c].reinitialize();
+            chunks[c].from = Math.min(count, c * size);
+            chunks[c].to = Math.min(count, (c + 1) * size);
+        }
+        root.reinitialize();
+        pool.invoke(root);
+    }
+    
+    private void runPhase(Chunk chunk) {
+        Bodies b = bodies;
+        int count = b.count;
+        int from = chunk.from;
+        int to = chunk.to;
+        switch(phase) {
+            case SNAPSHOT:
+                System.arraycopy(b.x, from, x, from, to - from);
+                System.arraycopy(b.y, from, y, from, to - from);
+                System.arraycopy(b.speedX, from, speedX, from, to - from);
+                System.arraycopy(b.speedY, from, speedY, from, to - from);
+                break;
+            case GRAVITY:
+                if(!config.barnesHutEnabled && VectorSupport.gravityEnabled(config)) {
+                    VectorSupport.KERNELS.gravity(config, b, from, to, delta, b.speedX, b.speedY);
+                    break;
+                }
+                for(int i = from; i < to; i++) {
+                    if(config.barnesHutEnabled) {
+                        quadTree.applyGravity(i, config.barnesHutTheta, config.gravityRadialForce, delta, chunk.stack);
+                    } else {
+                        for(int j = 0; j < count; j++) {
+                            if(i == j) continue;
+                            PhysObject.calculateGravity(config, b, i, j, delta);
+                        }
+                    }
+                }
+                break;
+            case VERTICAL_GRAVITY:
+                for(int i = from; i < to; i++)
+                    PhysObject.calculateVerticalGravity(config, b, i, delta);
+                break;
+            case SPRING_DISCOVERY:
+                chunk.candidateCount = 0;
+                for(int i = from; i < to; i++) {
+                    if(springs.outgoing[i] >= config.springMaxConnections) continue;
+                    if(useNeighbours) {
+                        neighbours.forEachNeighbour(i, chunk.springCandidate);
+                    } else if(config.broadphaseEnabled) {
+                        grid.forEachNeighbour(i, chunk.springCandidate, chunk.cursors);
+                    } else {
+                        for(int j = 0; j < count; j++)
+                            if(i != j)
+                                chunk.springCandidate.visit(i, j);
+                    }
+                }
+                break;
+            case SPRING_FORCES:
+                for(int i = from; i < to; i++) {
+                    for(int k = edgeStart[i]; k < edgeStart[i + 1]; k++) {
+                        int e = edgeOrder[k];
+                        broken[e] = !PhysObject.calculateSprings(config, b, speedX, speedY, i, springs.to[e], delta);
+                    }
+                }
+                break;
+            case FRICTION:
+                for(int i = from; i < to; i++)
+                    PhysObject.calculateBackgroudFriction(config, b, i, delta);
+                break;
+            case MOVE:
+                if(VectorSupport.enabled(config)) {
+                    VectorSupport.KERNELS.move(b, from, to, width, height, delta);
+                    break;
+                }
+                for(int i = from; i < to; i++)
+                    PhysObject.move(b, i, 0, 0, width, height, delta);
+                break;
+            case COLLISIONS:
+                chunk.pairsTested = 0;
+                chunk.pairsResolved = 0;
+                for(int i = from; i < to; i++) {
+                    if(useNeighbours) {
+                        neighbours.forEachNeighbour(i, chunk.contact);
+                    } else if(config.broadphaseEnabled) {
+                        grid.forEachNeighbour(i, chunk.contact, chunk.cursors);
+                    } else {
+                        for(int j = 0; j < count; j++)
+                            if(i != j)
+                                chunk.contact.visit(i, j);
+                    }
+                    chunk.applyBoxContacts(i);
+                }
+                break;
+        }
+    }
+    
+    private class Chunk extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        int from, to;
+        final int[] stack = new int[QuadTree.STACK_SIZE];
+        final int[] cursors = new int[SpatialGrid.CURSORS_SIZE];
+        final double[] response = new double[4];
+        final double[] normal = new double[3];
+        int[] candidates = new int[64];
+        int candidateCount;
+        int pairsTested, pairsResolved;
+        double boxSpeedX, boxSpeedY, boxX, boxY;
+        int boxContacts;
+        
+        final PairVisitor springCandidate = new PairVisitor() {
+            @Override
+            public void visit(int i, int j) {
+                if(springs.contains(i, j)) return;
+                if(Utils.distance(bodies.x[i], bodies.x[j], bodies.y[i], bodies.y[j]) < config.springMaxDistance) {
+                    if(candidateCount + 2 > candidates.length)
+                        candidates = Arrays.copyOf(candidates, candidates.length * 2);
+                    candidates[candidateCount++] = i;
+                    candidates[candidateCount++] = j;
+                }
+            }
+        };
+        
+        final PairVisitor contact = new PairVisitor() {
+            @Override
+            public void visit(int i, int j) {
+                if(i < j)
+                    pairsTested++;
+                if(PhysObject.contactResponse(bodies, x, y, speedX, speedY, i, j, normal, response)) {
+                    if(i < j)
+                        pairsResolved++;
+                    if(bodies.type[i] == Bodies.BALL && bodies.type[j] == Bodies.BALL) {
+                        bodies.speedX[i] += response[0];
+                        bodies.speedY[i] += response[1];
+                        bodies.x[i] += response[2];
+                        bodies.y[i] += response[3];
+                    } else {
+                        boxSpeedX += response[0];
+                        boxSpeedY += response[1];
+                        boxX += response[2];
+                        boxY += response[3];
+                        boxContacts++;
+                    }
+                }
+            }
+        };
+        
+        /**
+         * Applies the average response of the contacts of i that involve a box.
+         * Summing them like ball contacts lets a light box squeezed between
+         * heavy balls gain energy from every contact at once.
+         */
+        void applyBoxContacts(int i) {
+            if(boxContacts == 0)
+                return;
+            bodies.speedX[i] += boxSpeedX / boxContacts;
+            bodies.speedY[i] += boxSpeedY / boxContacts;
+            bodies.x[i] += boxX / boxContacts;
+            bodies.y[i] += boxY / boxContacts;
+            boxSpeedX = boxSpeedY = boxX = boxY = 0;
+            boxContacts = 0;
+        }
+        
+        @Override
+        protected void compute() {
+            runPhase(this);
+        }
+        
+    }
+    
+}
@@ -7,7 +7,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.ArrayList;
+import java.io.IOException;
 import static java.lang.Math.*;
 import static phys.Globals.*;
 
@@ -20,21 +20,68 @@ public class Phys {
     
     static Thread t;
     
-    public static void main(String[] args) {
-        createAndShowGUI();
+    static final String USAGE = "Usage: Phys [--replay file] [--metrics file] [--scene name]"
+            + " [--seed value] [--deterministic] [--hash steps]";
+    
+    /**
+     * With --replay file a recorded trajectory is played back instead of running the simulation,
+     * --metrics file appends the metrics to a CSV file every second and --scene picks a built-in
+     * scene or a scene file. --seed value seeds the scene, also when it is generated again with R.
+     * --deterministic runs with the fixed timestep in a world of a fixed size instead of the size
+     * of the window, seeded with 0 unless --seed is given, and --hash steps prints the state hash
+     * every that many steps, so two runs can be compared.
+     */
+    public static void main(String[] args) throws IOException {
+        String replay = null;
+        String metrics = null;
+        String scene = "lattice";
+        Long seed = null;
+        boolean deterministic = false;
+        long hashEvery = 0;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                switch(args[i]) {
+                    case "--deterministic": deterministic = true; break;
+                    case "--replay": replay = Headless.value(args, ++i); break;
+                    case "--metrics": metrics = Headless.value(args, ++i); break;
+                    case "--scene": scene = Headless.value(args, ++i); break;
+                    case "--seed": seed = Long.parseLong(Headless.value(args, ++i)); break;
+                    case "--hash": hashEvery = Long.parseLong(Headless.value(args, ++i)); break;
+                    default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+            }
+        } catch(IllegalArgumentException e) {
+            Headless.exitWithUsage(e.getMessage(), USAGE);
+            return;
+        }
+        if(deterministic) {
+            fixedTimestep = true;
+            if(seed == null)
+                seed = 0L;
+        }
+        createAndShowGUI(replay, metrics, scene, seed, deterministic, hashEvery);
     }
 
-    private static void createAndShowGUI() {
+    private static void createAndShowGUI(String replay, String metrics, String scene,
+            Long seed, boolean deterministic, long hashEvery) throws IOException {
         JFrame f = new JFrame();
         //f.setBounds(400, 100, 500, 500);
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         //f.setUndecorated(true);
         f.setExtendedState(JFrame.MAXIMIZED_BOTH);
         MyPanel p = new MyPanel();
+        p.replayFile = replay;
+        p.scene = scene;
+        p.seed = seed;
+        p.deterministic = deterministic;
+        p.hashEvery = hashEvery;
+        if(metrics != null)
+            p.world.metrics.startCsv(metrics, 1000);
         p.addKeyListener(p);
         f.add(p);
         f.setVisible(true);
-        p.generateObjects();
+        if(replay == null)
+            p.generateObjects();
         t = new Thread(p);
         t.start();
     }
@@ -43,12 +90,36 @@ public class Phys {
 
 class MyPanel extends JPanel implements Runnable, KeyListener {
     
+    private static final long serialVersionUID = 1L;
+    
+    private static final String[] INTEGRATOR_TEXTS = new String[Integrator.NAMES.length];
+    static {
+        for(int type = 0; type < INTEGRATOR_TEXTS.length; type++)
+            INTEGRATOR_TEXTS[type] = "Integrator: " + Integrator.NAMES[type] + " (I)";
+    }
+    
     int fps = 0;
-    double simulationSpeed = pow(2, simulationSpeedExponent);
-    ArrayList<PhysObject> objects;
+    World world;
+    String scene = "lattice";
+    String snapshotFile = "phys.snapshot";
+    String trajectoryFile = "phys.trajectory";
+    String replayFile;
+    TrajectoryRecorder recorder;
+    Long seed;
+    boolean deterministic;
+    long hashEvery;
+    // deterministic runs use a world of this size whatever the size of the window
+    static final double DETERMINISTIC_WIDTH = 1920, DETERMINISTIC_HEIGHT = 1080;
+    boolean showMetrics = false;
+    FrameBuffer frames = new FrameBuffer();
+    FrameRenderer renderer = new FrameRenderer();
+    // overlay lines with numbers in them, only rebuilt when the numbers change
+    private String fpsText, renderText, parallelText, fixedStepText, speedText, replayText;
+    private long fpsShown = -1, renderShown = -1, parallelShown = -1, fixedStepShown = -2, replayShown = -2;
 
     public MyPanel() {
-        objects = new ArrayList();
+        world = new World(0, 0);
+        world.metrics.register("window");
     }
     
     @Override
@@ -58,104 +129,111 @@ class MyPanel extends JPanel implements Runnable, KeyListener {
     }
 
     public void generateObjects() {
-        synchronized(objects) {
-//            for(int i = 0; i < 1000; i++) {
-//               objects.add(generateRandomPhysObject("ball"));
-//            }
-            for(int i = 0; i < 30; i++) {
-                for(int j = 0; j < 30; j++) {
-                    objects.add(new Ball(i*20+100+random()-0.5, j*20+100, 5, 0, 1, Utils.randomColor()));
-                }
-            }
-            //objects.add(new Ball(800, 401, 30, -150, 0, Color.red));
-//            objects.add(new Ball(600, 200, 10, 0, 0, Color.green)); 
-//            objects.add(new Ball(400, 400, 10, 0, 0, Color.blue));
-//        objects.add(new Ball(100, 350, 30, 1, 0, Color.white));
-//            for(int i = 0; i < 5; i++) {
-//                for(int j = 0; j < i; j++) {
-//                    objects.add(new Ball(500 + i*40, 350 + j*40 - i*20 + 20, 20, 0, 0, Utils.randomColor()));
-//                }
-//            }
-            initializeSprings();
+        synchronized(world) {
+            if(seed != null)
+                world.seed(seed);
+            setWorldBounds();
+            Scenes.load(world, scene);
+            // scene files may change the simulation speed
+            speedText = null;
         }
     }
     
-    public void initializeSprings() {
-        synchronized(objects) {
-            for(PhysObject object1 : objects) {
-                for(PhysObject object2 : objects) {
-                    if(object1 == object2) continue;
-                    double distance = Utils.distance(object1.x, object2.x, object1.y, object2.y);
-                    if(distance <= springInitialDistance) {
-                        object1.springConnections.add(object2);
-                    }
-                }
-            }
-        }
+    private void setWorldBounds() {
+        if(deterministic)
+            world.setBounds(DETERMINISTIC_WIDTH, DETERMINISTIC_HEIGHT);
+        else
+            world.setBounds(getWidth(), getHeight());
     }
     
     public void deleteAll() {
-        synchronized(objects) {
-            objects.clear();
+        synchronized(world) {
+            world.clear();
         }
     }
     
-    public PhysObject generateRandomPhysObject(String type) {
-        double x = Utils.randomBetween(25, getWidth() - 25);
-        double y = Utils.randomBetween(25, getHeight() - 25);
-//        double radius = Utils.nonLinearRandom(5, 50, new Function() {
-//            @Override
-//            public double f(double arg) {
-//                return pow(arg, 100);
-//            }
-//        });
-        double radius = Utils.randomBetween(5, 5);
-        double width = Utils.randomBetween(10, 50);
-        double height = Utils.randomBetween(10, 50);
-        double speedX = Utils.randomBetween(0, 0);
-        double speedY = Utils.randomBetween(0, 0);
-        Color color = Utils.randomColor();
-        PhysObject result = null;
-        switch(type) {
-            case "box": result = new Box(x, y, width, height, speedX, speedY, color); break;
-            case "ball" : result = new Ball(x, y, radius, speedX, speedY, color); break;
-            default: System.out.println("Unknown PhysObject type: " + type + "\n");
-        }
-        return result;
+    public void changeSimulationSpeed(int change) {
+        world.config.simulationSpeedExponent += change;
+        speedText = null;
     }
     
-    public void changeSimulationSpeed(int change) {
-        simulationSpeedExponent += change;
-        simulationSpeed = pow(2, simulationSpeedExponent);
+    double simulationSpeed() {
+        return pow(2, world.config.simulationSpeedExponent);
     }
     
     @Override
     protected void paintComponent(Graphics g) {
       
+        long start = System.nanoTime();
         g.setColor(Color.BLACK);
         g.fillRect(0, 0, getWidth(), getHeight());
         
-        synchronized(objects) {
-            if(springsEnabled)
-                drawSprings(g);
-            drawObjects(g);
+        Frame frame = frames.latest();
+        if(fastRenderEnabled) {
+            renderer.render(g, frame, getWidth(), getHeight());
+        } else {
+            long renderStart = System.nanoTime();
+            if(world.config.springsEnabled)
+                drawSprings(g, frame);
+            drawObjects(g, frame);
+            renderer.renderTime = (System.nanoTime() - renderStart) / 1e6;
         }
         
         drawText(g);
+        if(showMetrics)
+            drawMetrics(g);
+        world.metrics.record(Metrics.PAINT, System.nanoTime() - start);
         
     }
     
-    public void drawObjects(Graphics g) {
-        for(PhysObject object : objects) {
-            object.draw(g);
+    public void drawMetrics(Graphics g) {
+        Metrics metrics = world.metrics;
+        int row = getFont().getSize();
+        int y = row * 4;
+        g.setColor(Color.yellow);
+        g.drawString("phase: avg / p99 ms (M)", 0, y);
+        for(int p = 0; p < Metrics.PHASES; p++) {
+            y += row;
+            g.drawString(String.format("%s: %.3f / %.3f", Metrics.PHASE_NAMES[p],
+                    metrics.averageMillis(p), metrics.percentileMillis(p, 0.99)), 0, y);
+        }
+        y += row * 2;
+        g.drawString("bodies: " + metrics.bodies + ", springs: " + metrics.springs, 0, y);
+        y += row;
+        g.drawString("springs created / broken: " + metrics.springsCreated + " / " + metrics.springsBroken, 0, y);
+        y += row;
+        g.drawString("pairs tested / resolved: " + metrics.pairsTested + " / " + metrics.pairsResolved, 0, y);
+        y += row;
+        g.drawString("substeps: " + metrics.substeps, 0, y);
+        y += row;
+        g.drawString("sleeping bodies: " + metrics.sleeping, 0, y);
+        y += row;
+        g.drawString("coarse bodies: " + metrics.coarse, 0, y);
+    }
+    
+    public void drawObjects(Graphics g, Frame frame) {
+        int color = 0;
+        for(int i = 0; i < frame.count; i++) {
+            if(frame.color[i] != color) {
+                color = frame.color[i];
+                g.setColor(Utils.color(color));
+            }
+            double x = frame.interpolatedX(i);
+            double y = frame.interpolatedY(i);
+            if(frame.type[i] == Bodies.BALL)
+                Ball.draw(g, x, y, frame.radius[i]);
+            else
+                Box.draw(g, x, y, frame.width[i], frame.height[i]);
         }
     }
     
-    public void drawSprings(Graphics g) {
-        for(PhysObject object1 : objects) {
-            g.setColor(Color.yellow);
-            for(PhysObject object2 : object1.springConnections)
-                g.drawLine((int)object1.x, (int)object1.y, (int)object2.x, (int)object2.y);
+    public void drawSprings(Graphics g, Frame frame) {
+        g.setColor(Color.yellow);
+        for(int e = 0; e < frame.edgeCount; e++) {
+            int i = frame.springFrom[e];
+            int j = frame.springTo[e];
+            g.drawLine((int)frame.interpolatedX(i), (int)frame.interpolatedY(i),
+                    (int)frame.interpolatedX(j), (int)frame.interpolatedY(j));
         }
     }
     
@@ -163,26 +241,92 @@ class MyPanel extends JPanel implements Runnable, KeyListener {
         FontMetrics fontMetrics = g.getFontMetrics();
         String str;
         g.setColor(Color.yellow);
-        str = "fps: "+fps;
-        g.drawString(str, 0, getFont().getSize());
+        if(fps != fpsShown) {
+            fpsShown = fps;
+            fpsText = "fps: " + fps;
+        }
+        g.drawString(fpsText, 0, getFont().getSize());
+        long renderTime = Math.round(renderer.renderTime * 100);
+        if(renderTime != renderShown) {
+            renderShown = renderTime;
+            renderText = String.format("render: %.2f ms", renderer.renderTime);
+        }
+        g.drawString(renderText, 0, getFont().getSize()*2);
         str = "Collisions (1)";
-        g.setColor(collisionsEnabled ? Color.GREEN : Color.RED);
+        g.setColor(world.config.collisionsEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize());
         str = "Gravity radial (2)";
-        g.setColor(gravityRadialEnabled ? Color.GREEN : Color.RED);
+        g.setColor(world.config.gravityRadialEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*2);
         str = "Gravity vertical (3)";
-        g.setColor(gravityVerticalEnabled ? Color.GREEN : Color.RED);
+        g.setColor(world.config.gravityVerticalEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*3);
         str = "Backgroud friction (4)";
-        g.setColor(backgroundFrictionEnabled ? Color.GREEN : Color.RED);
+        g.setColor(world.config.backgroundFrictionEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*4);
         str = "Springs (5)";
-        g.setColor(springsEnabled ? Color.GREEN : Color.RED);
+        g.setColor(world.config.springsEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*5);
-        str = "Simulation speed: " + simulationSpeed + " (" + simulationSpeedExponent + ")";
-        g.setColor(Color.yellow);
+        str = "Broadphase (6)";
+        g.setColor(world.config.broadphaseEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*6);
+        str = "Barnes-Hut gravity (7)";
+        g.setColor(world.config.barnesHutEnabled ? Color.GREEN : Color.RED);
         g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*7);
+        if(world.config.parallelThreads != parallelShown) {
+            parallelShown = world.config.parallelThreads;
+            parallelText = "Parallel, " + world.config.parallelThreads + " threads (8)";
+        }
+        str = parallelText;
+        g.setColor(world.config.parallelEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*8);
+        long fixedStep = fixedTimestep ? (int)fixedStepRate : -1;
+        if(fixedStep != fixedStepShown) {
+            fixedStepShown = fixedStep;
+            fixedStepText = fixedTimestep ? "Fixed timestep, " + fixedStep + " Hz (9)" : "Fixed timestep (9)";
+        }
+        str = fixedStepText;
+        g.setColor(fixedTimestep ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*9);
+        str = "Fast render (0)";
+        g.setColor(fastRenderEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*10);
+        str = "Neighbour lists (N)";
+        g.setColor(world.config.neighbourListEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*11);
+        str = INTEGRATOR_TEXTS[world.config.integrator];
+        g.setColor(Color.yellow);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*12);
+        str = "Adaptive substeps (A)";
+        g.setColor(world.config.adaptiveSubstepping ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*13);
+        str = VectorSupport.describe() + " (V)";
+        g.setColor(VectorSupport.enabled(world.config) ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*14);
+        str = "Sleeping (Z)";
+        g.setColor(world.config.sleepingEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*15);
+        str = "Contact solver (C)";
+        g.setColor(world.config.contactSolverEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*16);
+        str = "Multi-rate (K)";
+        g.setColor(world.config.multiRateEnabled ? Color.GREEN : Color.RED);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*17);
+        if(speedText == null)
+            speedText = "Simulation speed: " + simulationSpeed() + " (" + world.config.simulationSpeedExponent + ")";
+        str = speedText;
+        g.setColor(Color.yellow);
+        g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*18);
+        if(replayFile != null || recorder != null) {
+            long dropped = replayFile != null ? -1 : recorder.dropped;
+            if(dropped != replayShown) {
+                replayShown = dropped;
+                replayText = replayFile != null ? "Replay: " + replayFile : "Recording (T), dropped " + dropped;
+            }
+            str = replayText;
+            g.setColor(Color.RED);
+            g.drawString(str, getWidth() - fontMetrics.stringWidth(str), getFont().getSize()*19);
+        }
         g.setColor(Color.yellow);
         g.setFont(getFont().deriveFont(50f));
         fontMetrics = g.getFontMetrics();
@@ -190,57 +334,93 @@ class MyPanel extends JPanel implements Runnable, KeyListener {
             g.drawString("PAUSE", getWidth()/2 - fontMetrics.stringWidth("PAUSE")/2, getHeight()/2 - getFont().getSize()/2);
     }
     
+    /**
+     * Hands the current state over to the renderer, paintComponent never locks the world.
+     */
+    public void publishFrame(double alpha) {
+        synchronized(world) {
+            frames.publish(world, alpha);
+        }
+    }
+    
     public void gameUpdate(double delta) {
-        synchronized(objects) {
+        synchronized(world) {
             if(pause) return;
-            if(gravityRadialEnabled)
-                for(PhysObject object1 : objects)
-                    for(PhysObject object2 : objects) {
-                        if(object1 == object2) continue;
-                        object1.calculateGravity(object2, delta);
-                    }
-            if(gravityVerticalEnabled)
-                for(PhysObject object : objects)
-                    object.calculateVerticalGravity(delta);
-            if(springsEnabled) {
-                for(PhysObject object1 : objects) {
-                    if(object1.springConnections.size() >= springMaxConnections) continue;
-                    for(PhysObject object2 : objects) {
-                        if(object1 == object2) continue;
-                        if(object1.springConnections.size() >= springMaxConnections) break;
-                        if(object2.incomingSpringConnections >= springMaxConnections) continue;
-                        if(object1.springConnections.indexOf(object2) != -1) continue;
-                        if(Utils.distance(object1.x, object2.x, object1.y, object2.y) < springMaxDistance) {
-                            object1.springConnections.add(object2);
-                            object2.incomingSpringConnections++;
+            setWorldBounds();
+            if(fixedTimestep)
+                world.savePreviousPositions();
+            world.step(delta);
+            if(hashEvery > 0 && world.steps % hashEvery == 0)
+                System.out.printf("step %d hash %016x%n", world.steps, world.stateHash());
+            if(recorder != null)
+                recorder.record(world);
+        }
+    }
+    
+    public void toggleRecording() {
+        synchronized(world) {
+            try {
+                if(recorder == null) {
+                    recorder = new TrajectoryRecorder(trajectoryFile);
+                } else {
+                    recorder.close();
+                    System.out.println("Recorded " + recorder.recorded + " frames to " + trajectoryFile
+                            + ", dropped " + recorder.dropped);
+                    recorder = null;
+                }
+            } catch(IOException e) {
+                System.out.println("Recording to " + trajectoryFile + " failed: " + e.getMessage());
+                recorder = null;
+            }
+        }
+    }
+    
+    /**
+     * Plays back a recorded trajectory at one frame per update, looping at the end.
+     */
+    public void replay() {
+        final long OPTIMAL_TIME = 1000000000 / TARGET_FPS;
+        TrajectoryReader reader = null;
+        while(true) {
+            long frameStartTime = System.nanoTime();
+            try {
+                if(reader == null)
+                    reader = new TrajectoryReader(replayFile);
+                if(!pause) {
+                    synchronized(world) {
+                        if(!reader.next(world)) {
+                            reader.close();
+                            reader = null;
+                            continue;
                         }
                     }
                 }
-                for(PhysObject object : objects)
-                    for(int i = object.springConnections.size() - 1; i >= 0; i--)
-                        object.calculateSprings(object.springConnections.get(i), delta);
+            } catch(IOException e) {
+                System.out.println("Could not replay " + replayFile + ": " + e.getMessage());
+                return;
+            }
+            publishFrame(1);
+            repaint();
+            try {
+                Thread.sleep(max(1, (OPTIMAL_TIME - (System.nanoTime() - frameStartTime)) / 1000000));
+            } catch (Exception e) {
             }
-            if(backgroundFrictionEnabled)
-                for(PhysObject object : objects)
-                    object.calculateBackgroudFriction(delta);
-            for(PhysObject object : objects)
-                object.move(0, 0, getWidth(), getHeight(), delta);
-            if(collisionsEnabled)
-                for(PhysObject object1 : objects)
-                    for(PhysObject object2 : objects) {
-                        if(object1 == object2) continue;
-                        PhysObject.collide(object1, object2);
-                    }
         }
     }
     
     @Override
     public void run() {
         
+        if(replayFile != null) {
+            replay();
+            return;
+        }
+        
         final long OPTIMAL_TIME = 1000000000 / TARGET_FPS;
         long frameStartTime = System.nanoTime();
         long fpsTime = 0;
         int fpsCount = 0;
+        double accumulator = 0;
         
         while(true) {
             
@@ -256,14 +436,38 @@ class MyPanel extends JPanel implements Runnable, KeyListener {
             }
             fpsCount++;
             
+            if(fixedTimestep) {
+                // physics runs in steps of 1/fixedStepRate seconds, rendering interpolates between the last two
+                double stepTime = 1 / fixedStepRate;
+                accumulator += updateLength / 1e9;
+                int substeps = 0;
+                while(accumulator >= stepTime && substeps < maxSubsteps) {
+                    gameUpdate(stepTime * TARGET_FPS * simulationSpeed());
+                    accumulator -= stepTime;
+                    substeps++;
+                }
+                // out of substeps, drop the backlog instead of falling further behind
+                if(accumulator >= stepTime)
+                    accumulator = 0;
+                publishFrame(pause ? 1 : accumulator / stepTime);
+                repaint();
+                try {
+                    Thread.sleep(1);
+                } catch (Exception e) {
+                }
+                continue;
+            }
+            accumulator = 0;
+            
             if(!variableTimestep)
                 delta = 1;
-            delta *= simulationSpeed;
+            delta *= simulationSpeed();
             double maxDelta = MAX_FRAME_TIME / OPTIMAL_TIME;
             if(delta > maxDelta)
                 delta = maxDelta;
             
             gameUpdate(delta);
+            publishFrame(1);
             repaint();
             
             try {
@@ -291,24 +495,87 @@ class MyPanel extends JPanel implements Runnable, KeyListener {
             case KeyEvent.VK_SPACE:
                 pause = !pause;
                 break;
+            case KeyEvent.VK_I:
+                world.config.integrator = (world.config.integrator + 1) % Integrator.NAMES.length;
+                break;
+            case KeyEvent.VK_A:
+                world.config.adaptiveSubstepping = !world.config.adaptiveSubstepping;
+                break;
+            case KeyEvent.VK_V:
+                world.config.vectorEnabled = !world.config.vectorEnabled;
+                break;
+            case KeyEvent.VK_N:
+                world.config.neighbourListEnabled = !world.config.neighbourListEnabled;
+                break;
+            case KeyEvent.VK_Z:
+                world.config.sleepingEnabled = !world.config.sleepingEnabled;
+                break;
+            case KeyEvent.VK_C:
+                world.config.contactSolverEnabled = !world.config.contactSolverEnabled;
+                break;
+            case KeyEvent.VK_K:
+                world.config.multiRateEnabled = !world.config.multiRateEnabled;
+                break;
+            case KeyEvent.VK_M:
+                showMetrics = !showMetrics;
+                break;
+            case KeyEvent.VK_T:
+                if(replayFile == null)
+                    toggleRecording();
+                break;
             case KeyEvent.VK_R:
+                if(replayFile != null)
+                    break;
                 deleteAll();
                 generateObjects();
                 break;
+            case KeyEvent.VK_S:
+                synchronized(world) {
+                    try {
+                        Snapshot.save(world, snapshotFile);
+                    } catch(IOException e) {
+                        System.out.println("Could not save " + snapshotFile + ": " + e.getMessage());
+                    }
+                }
+                break;
+            case KeyEvent.VK_L:
+                synchronized(world) {
+                    try {
+                        Snapshot.load(world, snapshotFile);
+                    } catch(IOException e) {
+                        System.out.println("Could not load " + snapshotFile + ": " + e.getMessage());
+                    }
+                }
+                break;
             case KeyEvent.VK_1:
-                collisionsEnabled = !collisionsEnabled;
+                world.config.collisionsEnabled = !world.config.collisionsEnabled;
                 break;
             case KeyEvent.VK_2:
-                gravityRadialEnabled = !gravityRadialEnabled;
+                world.config.gravityRadialEnabled = !world.config.gravityRadialEnabled;
                 break;
             case KeyEvent.VK_3:
-                gravityVerticalEnabled = !gravityVerticalEnabled;
+                world.config.gravityVerticalEnabled = !world.config.gravityVerticalEnabled;
                 break;
             case KeyEvent.VK_4:
-                backgroundFrictionEnabled = !backgroundFrictionEnabled;
+                world.config.backgroundFrictionEnabled = !world.config.backgroundFrictionEnabled;
                 break;
             case KeyEvent.VK_5:
-                springsEnabled = !springsEnabled;
+                world.config.springsEnabled = !world.config.springsEnabled;
+                break;
+            case KeyEvent.VK_6:
+                world.config.broadphaseEnabled = !world.config.broadphaseEnabled;
+                break;
+            case KeyEvent.VK_7:
+                world.config.barnesHutEnabled = !world.config.barnesHutEnabled;
+                break;
+            case KeyEvent.VK_8:
+                world.config.parallelEnabled = !world.config.parallelEnabled;
+                break;
+            case KeyEvent.VK_9:
+                fixedTimestep = !fixedTimestep;
+                break;
+            case KeyEvent.VK_0:
+                fastRenderEnabled = !fastRenderEnabled;
                 break;
             case 107:
                 changeSimulationSpeed(1);
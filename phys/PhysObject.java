@@ -3,257 +3,248 @@ package phys;
 import java.awt.Color;
 import java.awt.Graphics;
 import static java.lang.Math.*;
-import java.util.ArrayList;
-import static phys.Globals.*;
 
 public abstract class PhysObject {
     
-    double x, y;
-    double speedX, speedY;
-    double damping;
-    Color color;
-    protected double mass;
-    public ArrayList<PhysObject> springConnections;
-    int incomingSpringConnections = 0;
+    // index of a pair of shapes, type of the first body * Bodies.SHAPES + type of the second
+    static final int BALL_BALL = Bodies.BALL * Bodies.SHAPES + Bodies.BALL;
+    static final int BALL_BOX = Bodies.BALL * Bodies.SHAPES + Bodies.BOX;
+    static final int BOX_BALL = Bodies.BOX * Bodies.SHAPES + Bodies.BALL;
+    static final int BOX_BOX = Bodies.BOX * Bodies.SHAPES + Bodies.BOX;
     
-    public PhysObject(double x, double y, double speedX, double speedY, Color color) {
-        this.x = x;
-        this.y = y;
-        this.speedX = speedX;
-        this.speedY = speedY;
-        this.color = color;
-        damping = DAMPING;
-        springConnections = new ArrayList();
-    }
-    
-    public abstract void recalculateMass();
-    public abstract void draw(Graphics g);
+    final Bodies bodies;
+    final int index;
     
-    public double getMass() {
-        return mass;
+    protected PhysObject(Bodies bodies, int index) {
+        this.bodies = bodies;
+        this.index = index;
     }
     
-    public void move(double minX, double minY, double maxX, double maxY, double delta) {
-        x += speedX * delta;
-        y += speedY * delta;
-    }
+    public abstract void draw(Graphics g);
     
-    public void calculateBackgroudFriction(double delta) {
-        double speed = sqrt(pow(speedX, 2) + pow(speedY, 2));
-        if(speed == 0)
-            return;
-        double forceX = -speedX / speed * backgroundFrictionForce;
-        double forceY = -speedY / speed * backgroundFrictionForce;
-        double oldSpeedX = speedX;
-        double oldSpeedY = speedY;
-        speedX += forceX / getMass() * delta;
-        speedY += forceY / getMass() * delta;
-        if(speedX * oldSpeedX < 0)
-            speedX = 0;
-        if(speedY * oldSpeedY < 0)
-            speedY = 0;
+    public double getX() {
+        return bodies.x[index];
     }
     
-    public static void collide(PhysObject obj1, PhysObject obj2) {
-        if(obj1.getClass() == Ball.class && obj2.getClass() == Ball.class) {
-            Ball.collideBalls((Ball)obj1, (Ball)obj2);
-        }
+    public double getY() {
+        return bodies.y[index];
     }
     
-    public void calculateVerticalGravity(double delta) {
-        speedY += gravityVerticalForce * delta;
+    public double getSpeedX() {
+        return bodies.speedX[index];
     }
     
-    public void calculateGravity(PhysObject anotherObject, double delta) {
-        
-        double distance = Utils.distance(x, anotherObject.x, y, anotherObject.y);
-        if(distance == 0)
-            return;
-        double force = gravityRadialForce * getMass() * anotherObject.getMass() / pow(distance, 2);
-        double forceX = (anotherObject.x - x) / distance * force;
-        double forceY = (anotherObject.y - y) / distance * force;
-        speedX += forceX / getMass() * delta;
-        speedY += forceY / getMass() * delta;
-        
+    public double getSpeedY() {
+        return bodies.speedY[index];
     }
     
-    public void calculateSprings(PhysObject anotherObject, double delta) {
-        double distance = Utils.distance(x, anotherObject.x, y, anotherObject.y);
-        if(distance == 0) return;
-        if(distance > springMaxDistance) {
-            springConnections.remove(anotherObject);
-            anotherObject.incomingSpringConnections--;
-            return;
-        }
-        double offset = distance - springDistance;
-        double relativeSpeedX = anotherObject.speedX - speedX;
-        double relativeSpeedY = anotherObject.speedY - speedY;
-        double relativeSpeed = sqrt(pow(relativeSpeedX, 2) + pow(relativeSpeedY, 2));
-        double dampingForce = relativeSpeed * springDamping;
-        double dampingForceX, dampingForceY;
-        if(relativeSpeed != 0) {
-            dampingForceX = relativeSpeedX / relativeSpeed * dampingForce;
-            dampingForceY = relativeSpeedY / relativeSpeed * dampingForce;
-        } else {
-            dampingForceX = 0;
-            dampingForceY = 0;
-        }
-        double force;
-        force = offset * springForce - dampingForce;
-        double forceX = (anotherObject.x - x) / distance * force + dampingForceX;
-        double forceY = (anotherObject.y - y) / distance * force + dampingForceY;
-        speedX += forceX / getMass() * delta;
-        speedY += forceY / getMass() * delta;
+    public void setPosition(double x, double y) {
+        bodies.x[index] = x;
+        bodies.y[index] = y;
     }
     
-}
-
-class Box extends PhysObject {
-    
-    private double width, height;
-    
-    public Box(double x, double y, double width, double height, double speedX, double speedY, Color color) {
-        super(x, y, speedX, speedY, color);
-        setSize(width, height);
+    public void setSpeed(double speedX, double speedY) {
+        bodies.speedX[index] = speedX;
+        bodies.speedY[index] = speedY;
     }
     
-    private void setSize(double width, double height) {
-        this.width = width;
-        this.height = height;
-        recalculateMass();
+    public double getMass() {
+        return bodies.mass[index];
     }
     
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(color);
-        g.fillRect((int)x, (int)y, (int)width, (int)height);
-    }
-
-    @Override
-    public void move(double minX, double minY, double maxX, double maxY, double delta) {
-        
-        super.move(minX, minY, maxX, maxY, delta);
-        
-        if(x < 0) {
-            x = 0;
-            speedX = -speedX;
-        }
-        if(x > maxX - width) {
-            x = maxX - width;
-            speedX = -speedX;
-        }
-        if(y < 0) {
-            y = 0;
-            speedY = -speedY;
-        }
-        if(y > maxY - height) {
-            y = maxY - height;
-            speedY = -speedY;
-        }
-        
-    }
-
-    @Override
-    public void recalculateMass() {
-        double bigSide = max(width, height);
-        double smallSide = min(width, height);
-        mass = pow(bigSide, 2)*smallSide*cubucPixelMass;
+    public Color getColor() {
+        return Utils.color(bodies.color[index]);
     }
     
-}
-
-class Ball extends PhysObject {
-    
-    private double radius;
-    
-    public Ball(double x, double y, double radius, double speedX, double speedY, Color color) {
-        super(x, y, speedX, speedY, color);
-        setRadius(radius);
+    public static void move(Bodies b, int i, double minX, double minY, double maxX, double maxY, double delta) {
+        b.x[i] += b.speedX[i] * delta;
+        b.y[i] += b.speedY[i] * delta;
+        clamp(b, i, minX, minY, maxX, maxY);
     }
     
-    private void setRadius(double radius) {
-        this.radius = radius;
-        recalculateMass();
+    static void clamp(Bodies b, int i, double minX, double minY, double maxX, double maxY) {
+        if(b.type[i] == Bodies.BALL)
+            Ball.clamp(b, i, minX, minY, maxX, maxY);
+        else
+            Box.clamp(b, i, minX, minY, maxX, maxY);
     }
     
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(color);
-        g.fillOval((int)x - (int)radius, (int)y - (int)radius, (int)radius*2, (int)radius*2);
-    }
-
-    @Override
-    public void move(double minX, double minY, double maxX, double maxY, double delta) { 
-        
-        super.move(minX, minY, maxX, maxY, delta);
-        
-        if(x < radius) {
-            x = radius;
-            speedX = -speedX * damping;
-        }
-        if(x > maxX - radius) {
-            x = maxX - radius;
-            speedX = -speedX * damping;
-        }
-        if(y < radius) {
-            y = radius;
-            speedY = -speedY * damping;
+    public static void calculateBackgroudFriction(Config c, Bodies b, int i, double delta) {
+        double speed = sqrt(b.speedX[i] * b.speedX[i] + b.speedY[i] * b.speedY[i]);
+        if(speed == 0)
+            return;
+        double forceX = -b.speedX[i] / speed * c.backgroundFrictionForce;
+        double forceY = -b.speedY[i] / speed * c.backgroundFrictionForce;
+        double oldSpeedX = b.speedX[i];
+        double oldSpeedY = b.speedY[i];
+        b.speedX[i] += forceX / b.mass[i] * delta;
+        b.speedY[i] += forceY / b.mass[i] * delta;
+        if(b.speedX[i] * oldSpeedX < 0)
+            b.speedX[i] = 0;
+        if(b.speedY[i] * oldSpeedY < 0)
+            b.speedY[i] = 0;
+    }
+    
+    /**
+     * Returns true if the bodies were touching and the contact was resolved.
+     * contact is scratch space for three values.
+     */
+    public static boolean collide(Config c, Bodies b, int i, int j, double[] contact) {
+        if(b.type[i] * Bodies.SHAPES + b.type[j] == BALL_BALL) {
+            if(c.referenceCollisionSolver)
+                return Ball.collideBallsReference(b, i, j);
+            else
+                return Ball.collideBalls(b, i, j);
         }
-        if(y > maxY - radius) {
-            y = maxY - radius;
-            speedY = -speedY * damping;
+        if(!contact(b, b.x, b.y, i, j, contact))
+            return false;
+        resolve(b, i, j, contact[0], contact[1], contact[2]);
+        return true;
+    }
+    
+    /**
+     * Finds the contact between i and j at the given positions. Writes the
+     * normal pointing from i to j and the depth of the overlap into out
+     * (normalX, normalY, depth) and returns false if the bodies don't touch.
+     */
+    static boolean contact(Bodies b, double[] x, double[] y, int i, int j, double[] out) {
+        switch(b.type[i] * Bodies.SHAPES + b.type[j]) {
+            case BALL_BALL:
+                return Ball.ballContact(b, x, y, i, j, out);
+            case BALL_BOX:
+                return Box.ballBoxContact(b, x, y, i, j, out);
+            case BOX_BALL:
+                if(!Box.ballBoxContact(b, x, y, j, i, out))
+                    return false;
+                out[0] = -out[0];
+                out[1] = -out[1];
+                return true;
+            case BOX_BOX:
+                return Box.boxContact(b, x, y, i, j, out);
+            default:
+                return false;
         }
-        
     }
     
-    public static void collideBalls(Ball b1, Ball b2) {
-        
-        double distance = Utils.distance(b1.x, b2.x, b1.y, b2.y);
-        if(distance == 0)
-            return;
-        double overlap = b1.radius + b2.radius - distance;
+    /**
+     * Pushes i and j apart along the normal by half the depth each and, if
+     * they are approaching, exchanges the same impulse as collideBalls.
+     */
+    static void resolve(Bodies b, int i, int j, double normalX, double normalY, double depth) {
+        double approach = (b.speedX[j] - b.speedX[i]) * normalX + (b.speedY[j] - b.speedY[i]) * normalY;
+        if(approach < 0) {
+            double impulse = (1 + b.damping[i]*b.damping[j]) * approach / (b.mass[i] + b.mass[j]);
+            b.speedX[i] += impulse * b.mass[j] * normalX;
+            b.speedY[i] += impulse * b.mass[j] * normalY;
+            b.speedX[j] -= impulse * b.mass[i] * normalX;
+            b.speedY[j] -= impulse * b.mass[i] * normalY;
+        }
+        b.x[i] -= normalX * depth / 2;
+        b.y[i] -= normalY * depth / 2;
+        b.x[j] += normalX * depth / 2;
+        b.y[j] += normalY * depth / 2;
+    }
+    
+    /**
+     * Same as Ball.contactResponse for any pair of shapes. contact is scratch
+     * space for three values.
+     */
+    static boolean contactResponse(Bodies b, double[] x, double[] y, double[] speedX, double[] speedY, int i, int j,
+            double[] contact, double[] out) {
+        if(b.type[i] * Bodies.SHAPES + b.type[j] == BALL_BALL)
+            return Ball.contactResponse(b, x, y, speedX, speedY, i, j, out);
+        if(!contact(b, x, y, i, j, contact))
+            return false;
+        double normalX = contact[0], normalY = contact[1], depth = contact[2];
+        double approach = (speedX[j] - speedX[i]) * normalX + (speedY[j] - speedY[i]) * normalY;
+        double impulse = approach < 0 ? (1 + b.damping[i]*b.damping[j]) * approach / (b.mass[i] + b.mass[j]) : 0;
+        out[0] = impulse * b.mass[j] * normalX;
+        out[1] = impulse * b.mass[j] * normalY;
+        out[2] = -normalX * depth / 2;
+        out[3] = -normalY * depth / 2;
+        return true;
+    }
+    
+    public static void calculateVerticalGravity(Config c, Bodies b, int i, double delta) {
+        b.speedY[i] += c.gravityVerticalForce * delta;
+    }
+    
+    public static void calculateGravity(Config c, Bodies b, int i, int j, double delta) {
         
-        if(overlap <= 0)
+        double dx = b.x[j] - b.x[i];
+        double dy = b.y[j] - b.y[i];
+        double distance2 = dx * dx + dy * dy;
+        if(distance2 == 0)
             return;
-
-        double b1Speed = sqrt(pow(b1.speedX, 2) + pow(b1.speedY, 2));
-        double b2Speed = sqrt(pow(b2.speedX, 2) + pow(b2.speedY, 2));
-        double collisionAngle = atan2(b2.x - b1.x, b1.y - b2.y) - PI/2;
-        double b1SpeedAngle = atan2(b1.speedX, -b1.speedY) - PI/2;
-        double b2SpeedAngle = atan2(b2.speedX, -b2.speedY) + PI/2;
-        double b1SpeedXRot = b1Speed * cos(b1SpeedAngle - collisionAngle);
-        double b1SpeedYRot = b1Speed * sin(b1SpeedAngle - collisionAngle);
-        double b2SpeedXRot = -b2Speed * cos(b2SpeedAngle - collisionAngle);
-        double b2SpeedYRot = -b2Speed * sin(b2SpeedAngle - collisionAngle);
-        double b1NewSpeedXRot = partiallyElasticCollision(b1SpeedXRot,
-                b2SpeedXRot, b1.getMass(), b2.getMass(), b1.damping*b2.damping);
-        double b2NewSpeedXRot = partiallyElasticCollision(b2SpeedXRot,
-                b1SpeedXRot, b2.getMass(), b1.getMass(), b1.damping*b2.damping);
-        b1.speedX = b1NewSpeedXRot * cos(collisionAngle) + b1SpeedYRot * cos(collisionAngle + PI/2);
-        b1.speedY = b1NewSpeedXRot * sin(collisionAngle) + b1SpeedYRot * sin(collisionAngle + PI/2);
-        b2.speedX = b2NewSpeedXRot * cos(collisionAngle) + b2SpeedYRot * cos(collisionAngle + PI/2);
-        b2.speedY = b2NewSpeedXRot * sin(collisionAngle) + b2SpeedYRot * sin(collisionAngle + PI/2);
+        double distance = sqrt(distance2);
+        double acceleration = c.gravityRadialForce * b.mass[j] / distance2 * delta / distance;
+        b.speedX[i] += dx * acceleration;
+        b.speedY[i] += dy * acceleration;
         
-        double k = overlap / distance;
-        b1.x += (b1.x - b2.x)*k/2;
-        b1.y += (b1.y - b2.y)*k/2;
-        b2.x += (b2.x - b1.x)*k/2;
-        b2.y += (b2.y - b1.y)*k/2;
-        
-    }
-    
-    public static double elasticCollision(double v1, double v2, double m1, double m2) {
-        return (v1*(m1-m2)+2*m2*v2)/(m1+m2);
     }
     
-    public static double partiallyElasticCollision(double v1, double v2, double m1, double m2, double restitution) {
-        return (restitution*m2*(v2-v1)+m1*v1+m2*v2)/(m1+m2);
-    }
-
-    @Override
-    public void recalculateMass() {
-        //mass = 4.0/3.0*PI*pow(radius, 3)*cubucPixelMass;
-        mass = PI * pow(radius, 2);
+    /**
+     * Adds the acceleration of i caused by the gravity of j to ax and ay.
+     */
+    public static void gravityAcceleration(Config c, Bodies b, int i, int j, double[] ax, double[] ay) {
+        double dx = b.x[j] - b.x[i];
+        double dy = b.y[j] - b.y[i];
+        double distance2 = dx * dx + dy * dy;
+        if(distance2 == 0)
+            return;
+        double distance = sqrt(distance2);
+        double acceleration = c.gravityRadialForce * b.mass[j] / distance2 / distance;
+        ax[i] += dx * acceleration;
+        ay[i] += dy * acceleration;
+    }
+    
+    /**
+     * Adds the acceleration of i caused by the spring from i to j to ax and ay.
+     * Unlike calculateSprings this never breaks the spring.
+     */
+    public static void springAcceleration(Config c, Bodies b, int i, int j, double[] ax, double[] ay) {
+        double dx = b.x[j] - b.x[i];
+        double dy = b.y[j] - b.y[i];
+        double distance = sqrt(dx * dx + dy * dy);
+        if(distance == 0) return;
+        double offset = distance - c.springDistance;
+        double relativeSpeedX = b.speedX[j] - b.speedX[i];
+        double relativeSpeedY = b.speedY[j] - b.speedY[i];
+        double force = offset * c.springForce - sqrt(relativeSpeedX * relativeSpeedX + relativeSpeedY * relativeSpeedY) * c.springDamping;
+        double forceX = dx / distance * force + relativeSpeedX * c.springDamping;
+        double forceY = dy / distance * force + relativeSpeedY * c.springDamping;
+        ax[i] += forceX / b.mass[i];
+        ay[i] += forceY / b.mass[i];
+    }
+    
+    /**
+     * Applies the spring between i and j to the speed of i.
+     * Returns false if the spring is stretched past springMaxDistance and should be removed.
+     */
+    public static boolean calculateSprings(Config c, Bodies b, int i, int j, double delta) {
+        return calculateSprings(c, b, b.speedX, b.speedY, i, j, delta);
+    }
+    
+    /**
+     * Same as calculateSprings(c, b, i, j, delta), but reads speeds from the given arrays,
+     * which can be a snapshot taken before the pass.
+     */
+    public static boolean calculateSprings(Config c, Bodies b, double[] speedX, double[] speedY, int i, int j, double delta) {
+        double dx = b.x[j] - b.x[i];
+        double dy = b.y[j] - b.y[i];
+        double distance = sqrt(dx * dx + dy * dy);
+        if(distance == 0) return true;
+        if(distance > c.springMaxDistance) return false;
+        double offset = distance - c.springDistance;
+        double relativeSpeedX = speedX[j] - speedX[i];
+        double relativeSpeedY = speedY[j] - speedY[i];
+        // damping force is relativeSpeed * springDamping directed along the relative speed
+        double force = offset * c.springForce - sqrt(relativeSpeedX * relativeSpeedX + relativeSpeedY * relativeSpeedY) * c.springDamping;
+        double forceX = dx / distance * force + relativeSpeedX * c.springDamping;
+        double forceY = dy / distance * force + relativeSpeedY * c.springDamping;
+        b.speedX[i] += forceX / b.mass[i] * delta;
+        b.speedY[i] += forceY / b.mass[i] * delta;
+        return true;
     }
     
 }
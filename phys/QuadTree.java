@@ -0,0 +1,185 @@
+package phys;
+
+import static java.lang.Math.*;
+
+public class QuadTree {
+    
+    private static final int MAX_DEPTH = 32;
+    private static final int EMPTY = -1;
+    private static final int AGGREGATE = -2;
+    
+    private Bodies bodies;
+    private int nodeCount;
+    private double[] centerX, centerY, halfSize;
+    private double[] mass, massX, massY;
+    private int[] firstChild;
+    private int[] body;
+    static final int STACK_SIZE = 4 * (MAX_DEPTH + 2);
+    private final int[] stack = new int[STACK_SIZE];
+    
+    public QuadTree() {
+        allocate(64);
+    }
+    
+    private void allocate(int capacity) {
+        centerX = grow(centerX, capacity);
+        centerY = grow(centerY, capacity);
+        halfSize = grow(halfSize, capacity);
+        mass = grow(mass, capacity);
+        massX = grow(massX, capacity);
+        massY = grow(massY, capacity);
+        firstChild = grow(firstChild, capacity);
+        body = grow(body, capacity);
+    }
+    
+    private static double[] grow(double[] array, int capacity) {
+        double[] result = new double[capacity];
+        if(array != null)
+            System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+    
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        if(array != null)
+            System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+    
+    public void build(Bodies bodies) {
+        this.bodies = bodies;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < bodies.count; i++) {
+            minX = min(minX, bodies.x[i]);
+            minY = min(minY, bodies.y[i]);
+            maxX = max(maxX, bodies.x[i]);
+            maxY = max(maxY, bodies.y[i]);
+        }
+        nodeCount = 0;
+        if(bodies.count == 0)
+            return;
+        int root = newNode((minX + maxX) / 2, (minY + maxY) / 2, max(maxX - minX, maxY - minY) / 2 + 1);
+        for(int i = 0; i < bodies.count; i++)
+            insert(root, i, 0);
+        for(int node = 0; node < nodeCount; node++) {
+            if(mass[node] != 0) {
+                massX[node] /= mass[node];
+                massY[node] /= mass[node];
+            }
+        }
+    }
+    
+    private int newNode(double x, double y, double half) {
+        if(nodeCount == centerX.length)
+            allocate(centerX.length * 2);
+        int node = nodeCount++;
+        centerX[node] = x;
+        centerY[node] = y;
+        halfSize[node] = half;
+        mass[node] = 0;
+        massX[node] = 0;
+        massY[node] = 0;
+        firstChild[node] = -1;
+        body[node] = EMPTY;
+        return node;
+    }
+    
+    private void insert(int node, int index, int depth) {
+        double m = bodies.mass[index];
+        mass[node] += m;
+        massX[node] += m * bodies.x[index];
+        massY[node] += m * bodies.y[index];
+        if(firstChild[node] < 0) {
+            if(body[node] == EMPTY) {
+                body[node] = index;
+                return;
+            }
+            // bodies this close together are treated as a single point mass
+            if(depth >= MAX_DEPTH || body[node] == AGGREGATE) {
+                body[node] = AGGREGATE;
+                return;
+            }
+            subdivide(node);
+            int old = body[node];
+            body[node] = EMPTY;
+            insert(childFor(node, old), old, depth + 1);
+        }
+        insert(childFor(node, index), index, depth + 1);
+    }
+    
+    private void subdivide(int node) {
+        double half = halfSize[node] / 2;
+        double x = centerX[node];
+        double y = centerY[node];
+        int first = newNode(x - half, y - half, half);
+        newNode(x + half, y - half, half);
+        newNode(x - half, y + half, half);
+        newNode(x + half, y + half, half);
+        firstChild[node] = first;
+    }
+    
+    private int childFor(int node, int index) {
+        int child = firstChild[node];
+        if(bodies.x[index] >= centerX[node]) child += 1;
+        if(bodies.y[index] >= centerY[node]) child += 2;
+        return child;
+    }
+    
+    public void applyGravity(int index, double theta, double gravity, double delta) {
+        applyGravity(index, theta, gravity, delta, stack);
+    }
+    
+    /**
+     * Traverses the tree with a caller-provided stack of STACK_SIZE ints, so
+     * several threads can apply gravity to different bodies at the same time.
+     */
+    public void applyGravity(int index, double theta, double gravity, double delta, int[] stack) {
+        accumulate(index, theta, gravity, delta, bodies.speedX, bodies.speedY, stack);
+    }
+    
+    /**
+     * Adds the gravity acceleration of a body to ax and ay instead of changing its speed.
+     */
+    public void accelerate(int index, double theta, double gravity, double[] ax, double[] ay) {
+        accumulate(index, theta, gravity, 1, ax, ay, stack);
+    }
+    
+    private void accumulate(int index, double theta, double gravity, double delta, double[] outX, double[] outY, int[] stack) {
+        if(nodeCount == 0)
+            return;
+        double theta2 = theta * theta;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0) {
+            int node = stack[--top];
+            if(mass[node] == 0 || body[node] == index)
+                continue;
+            double dx = massX[node] - bodies.x[index];
+            double dy = massY[node] - bodies.y[index];
+            double distance2 = dx * dx + dy * dy;
+            double size = halfSize[node] * 2;
+            boolean far = size * size < theta2 * distance2 && !contains(node, index);
+            if(firstChild[node] < 0 || far) {
+                if(distance2 == 0)
+                    continue;
+                double distance = sqrt(distance2);
+                double acceleration = gravity * mass[node] / distance2 * delta / distance;
+                outX[index] += dx * acceleration;
+                outY[index] += dy * acceleration;
+            } else {
+                int child = firstChild[node];
+                stack[top++] = child;
+                stack[top++] = child + 1;
+                stack[top++] = child + 2;
+                stack[top++] = child + 3;
+            }
+        }
+    }
+    
+    private boolean contains(int node, int index) {
+        return abs(bodies.x[index] - centerX[node]) <= halfSize[node]
+                && abs(bodies.y[index] - centerY[node]) <= halfSize[node];
+    }
+    
+}
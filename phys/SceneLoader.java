@@ -0,0 +1,255 @@
+package phys;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import static java.lang.Math.*;
+
+/**
+ * Loads scenes from a line based text format. Lines are read one at a time
+ * and bodies are generated straight into the world's storage, which is sized
+ * up front for generators, so even scenes with millions of bodies load in a
+ * few seconds. Empty lines and everything after # are ignored. Directives:
+ *
+ *   set name value                     overrides a parameter of the world's Config
+ *   bounds width height                sets the size of the world
+ *   capacity count                     reserves storage for explicit bodies
+ *   seed value                         seeds the world's random generator
+ *   lattice columns=30 rows=30 x=100 y=100 spacing=20 radius=5 jitter=0.5 speedX=0 speedY=1
+ *   random count=1000 type=ball radius=5 x=0 y=0 width=bounds height=bounds
+ *   ball x y radius [speedX speedY [color]]
+ *   box x y width height [speedX speedY [color]]
+ *   springs distance=springInitialDistance
+ *   spring from to
+ *
+ * Generator parameters are optional and shown with their defaults. springs
+ * connects every pair of bodies loaded so far that are at most distance
+ * apart, spring connects two bodies by index. Colors are hex RGB like
+ * ff8000, bodies without one get a random color. Random values come from
+ * the world's generator, so a scene that starts with seed loads the same
+ * way every time.
+ */
+public class SceneLoader {
+    
+    private final World world;
+    private int line;
+    
+    private SceneLoader(World world) {
+        this.world = world;
+    }
+    
+    public static void load(World world, String path) throws IOException {
+        try(Reader reader = new FileReader(path)) {
+            load(world, reader, path);
+        }
+    }
+    
+    public static void load(World world, Reader reader, String name) throws IOException {
+        SceneLoader loader = new SceneLoader(world);
+        BufferedReader in = new BufferedReader(reader, 1 << 16);
+        String text;
+        while((text = in.readLine()) != null) {
+            loader.line++;
+            int comment = text.indexOf('#');
+            if(comment >= 0)
+                text = text.substring(0, comment);
+            StringTokenizer tokens = new StringTokenizer(text);
+            if(!tokens.hasMoreTokens())
+                continue;
+            try {
+                loader.directive(tokens.nextToken(), tokens);
+            } catch(IllegalArgumentException e) {
+                throw new IOException(name + ":" + loader.line + ": " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    private void directive(String name, StringTokenizer tokens) {
+        Bodies b = world.bodies;
+        switch(name) {
+            case "set":
+                set(next(tokens), next(tokens));
+                break;
+            case "bounds":
+                world.setBounds(number(next(tokens)), number(next(tokens)));
+                break;
+            case "capacity":
+                b.ensureCapacity(b.count + integer(next(tokens)));
+                break;
+            case "seed":
+                world.seed(longInteger(next(tokens)));
+                break;
+            case "lattice":
+                lattice(parameters(tokens));
+                break;
+            case "random":
+                randomField(parameters(tokens));
+                break;
+            case "ball": {
+                double x = number(next(tokens)), y = number(next(tokens)), radius = number(next(tokens));
+                double speedX = tokens.hasMoreTokens() ? number(next(tokens)) : 0;
+                double speedY = tokens.hasMoreTokens() ? number(next(tokens)) : 0;
+                b.addBall(x, y, radius, speedX, speedY, color(tokens));
+                break;
+            }
+            case "box": {
+                double x = number(next(tokens)), y = number(next(tokens));
+                double width = number(next(tokens)), height = number(next(tokens));
+                double speedX = tokens.hasMoreTokens() ? number(next(tokens)) : 0;
+                double speedY = tokens.hasMoreTokens() ? number(next(tokens)) : 0;
+                b.addBox(x, y, width, height, speedX, speedY, color(tokens));
+                break;
+            }
+            case "springs": {
+                Parameters p = parameters(tokens);
+                double distance = p.number("distance", world.config.springInitialDistance);
+                p.done();
+                world.initializeSprings(distance);
+                break;
+            }
+            case "spring": {
+                int from = integer(next(tokens)), to = integer(next(tokens));
+                if(from < 0 || from >= b.count || to < 0 || to >= b.count || from == to)
+                    throw new IllegalArgumentException("No bodies for spring " + from + " " + to);
+                world.springs.add(from, to);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown directive " + name);
+        }
+        if(tokens.hasMoreTokens())
+            throw new IllegalArgumentException("Unexpected " + tokens.nextToken() + " after " + name);
+    }
+    
+    private void lattice(Parameters p) {
+        int columns = p.integer("columns", 30);
+        int rows = p.integer("rows", 30);
+        double x = p.number("x", 100), y = p.number("y", 100);
+        double spacing = p.number("spacing", 20);
+        double radius = p.number("radius", 5);
+        double jitter = p.number("jitter", 0.5);
+        double speedX = p.number("speedX", 0), speedY = p.number("speedY", 1);
+        p.done();
+        Bodies b = world.bodies;
+        b.ensureCapacity(b.count + columns * rows);
+        for(int i = 0; i < columns; i++)
+            for(int j = 0; j < rows; j++)
+                b.addBall(x + i * spacing + (world.random.nextDouble() - 0.5) * 2 * jitter, y + j * spacing, radius,
+                        speedX, speedY, Utils.randomRGB(world.random));
+    }
+    
+    private void randomField(Parameters p) {
+        int count = p.integer("count", 1000);
+        String type = p.text("type", "ball");
+        double radius = p.number("radius", 5);
+        double x = p.number("x", 0), y = p.number("y", 0);
+        double width = p.number("width", world.width), height = p.number("height", world.height);
+        p.done();
+        if(!type.equals("ball") && !type.equals("box"))
+            throw new IllegalArgumentException("Unknown body type " + type);
+        Bodies b = world.bodies;
+        b.ensureCapacity(b.count + count);
+        for(int i = 0; i < count; i++) {
+            if(type.equals("ball"))
+                b.addBall(Utils.randomBetween(world.random, x + radius, x + width - radius),
+                        Utils.randomBetween(world.random, y + radius, y + height - radius), radius, 0, 0, Utils.randomRGB(world.random));
+            else
+                b.addBox(Utils.randomBetween(world.random, x, x + width - 50), Utils.randomBetween(world.random, y, y + height - 50),
+                        Utils.randomBetween(world.random, 10, 50), Utils.randomBetween(world.random, 10, 50), 0, 0, Utils.randomRGB(world.random));
+        }
+    }
+    
+    /**
+     * Sets a parameter of the world's Config. Globals are settings of the
+     * window shared by every world, so scenes can't change them.
+     */
+    private void set(String name, String value) {
+        world.config.set(name, value);
+    }
+    
+    private static String next(StringTokenizer tokens) {
+        if(!tokens.hasMoreTokens())
+            throw new IllegalArgumentException("Missing value");
+        return tokens.nextToken();
+    }
+    
+    private static double number(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number, got " + text);
+        }
+    }
+    
+    private static int integer(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an integer, got " + text);
+        }
+    }
+    
+    private static long longInteger(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an integer, got " + text);
+        }
+    }
+    
+    private int color(StringTokenizer tokens) {
+        if(!tokens.hasMoreTokens())
+            return Utils.randomRGB(world.random);
+        String text = tokens.nextToken();
+        try {
+            return 0xff000000 | Integer.parseInt(text, 16);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a hex color, got " + text);
+        }
+    }
+    
+    private static Parameters parameters(StringTokenizer tokens) {
+        Parameters result = new Parameters();
+        while(tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            int equals = token.indexOf('=');
+            if(equals <= 0)
+                throw new IllegalArgumentException("Expected name=value, got " + token);
+            result.values.put(token.substring(0, equals), token.substring(equals + 1));
+        }
+        return result;
+    }
+    
+    /**
+     * The name=value parameters of a generator, every parameter has to be used.
+     */
+    private static class Parameters {
+    
+        final HashMap<String, String> values = new HashMap<>();
+        
+        String text(String name, String otherwise) {
+            String value = values.remove(name);
+            return value != null ? value : otherwise;
+        }
+        
+        double number(String name, double otherwise) {
+            String value = values.remove(name);
+            return value != null ? SceneLoader.number(value) : otherwise;
+        }
+        
+        int integer(String name, int otherwise) {
+            String value = values.remove(name);
+            return value != null ? SceneLoader.integer(value) : otherwise;
+        }
+        
+        void done() {
+            if(!values.isEmpty())
+                throw new IllegalArgumentException("Unknown parameter " + values.keySet().iterator().next());
+        }
+    
+    }
+
+}
@@ -0,0 +1,92 @@
+package phys;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import static java.lang.Math.*;
+
+/**
+ * Named scenes that can be loaded into a World.
+ */
+public class Scenes {
+    
+    static final String[] NAMES = {"lattice", "random", "boxes", "cluster"};
+    
+    public static void load(World world, String name) {
+        load(world, name, 0);
+    }
+    
+    /**
+     * Loads a scene. size is the number of bodies for scenes that support it,
+     * 0 keeps the default. Names that aren't built in are loaded as scene
+     * files with SceneLoader.
+     */
+    public static void load(World world, String name, int size) {
+        switch(name) {
+            case "lattice":
+                int side = size > 0 ? (int)ceil(sqrt(size)) : 30;
+                lattice(world, side, side);
+                break;
+            case "random":
+                randomObjects(world, "ball", size > 0 ? size : 1000);
+                break;
+            case "boxes":
+                randomObjects(world, "box", size > 0 ? size : 100);
+                break;
+            case "cluster":
+                cluster(world, size > 0 ? size : 1000);
+                break;
+            default:
+                if(!new File(name).isFile())
+                    throw new IllegalArgumentException("Unknown scene: " + name);
+                try {
+                    SceneLoader.load(world, name);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+        }
+        world.initializeSprings();
+    }
+    
+    public static void lattice(World world, int columns, int rows) {
+        world.bodies.ensureCapacity(world.bodies.count + columns*rows);
+        for(int i = 0; i < columns; i++) {
+            for(int j = 0; j < rows; j++) {
+                world.bodies.addBall(i*20+100+world.random.nextDouble()-0.5, j*20+100, 5, 0, 1, Utils.randomRGB(world.random));
+            }
+        }
+        //objects.add(new Ball(800, 401, 30, -150, 0, Color.red));
+//        objects.add(new Ball(600, 200, 10, 0, 0, Color.green));
+//        objects.add(new Ball(400, 400, 10, 0, 0, Color.blue));
+//        objects.add(new Ball(100, 350, 30, 1, 0, Color.white));
+//        for(int i = 0; i < 5; i++) {
+//            for(int j = 0; j < i; j++) {
+//                objects.add(new Ball(500 + i*40, 350 + j*40 - i*20 + 20, 20, 0, 0, Utils.randomColor()));
+//            }
+//        }
+    }
+    
+    public static void randomObjects(World world, String type, int count) {
+        world.bodies.ensureCapacity(world.bodies.count + count);
+        for(int i = 0; i < count; i++) {
+            world.generateRandomPhysObject(type);
+        }
+    }
+    
+    /**
+     * Balls packed into a disc in the middle of the world, overlapping a bit.
+     */
+    public static void cluster(World world, int count) {
+        world.bodies.ensureCapacity(world.bodies.count + count);
+        double radius = 5;
+        double clusterRadius = sqrt(count) * radius;
+        for(int i = 0; i < count; i++) {
+            double angle = Utils.randomBetween(world.random, 0, 2*PI);
+            double distance = sqrt(world.random.nextDouble()) * clusterRadius;
+            world.bodies.addBall(world.width/2 + cos(angle)*distance, world.height/2 + sin(angle)*distance,
+                    radius, 0, 0, Utils.randomRGB(world.random));
+        }
+    }
+    
+}
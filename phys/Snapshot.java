@@ -0,0 +1,328 @@
+package phys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of a World. The file is a fixed header, every parameter of
+ * the world's Config as name and value, one block per body array, the spring
+ * edge list with incoming counts, the warm start impulses of the contact
+ * solver and the accelerations velocity Verlet kept for the next step, all
+ * little-endian and written through a memory-mapped FileChannel. Saving goes
+ * to a temporary file that replaces the target only once it is complete, so
+ * a crash never leaves a broken checkpoint behind, and loading checks the
+ * whole file before it changes the world.
+ * A resumed world steps exactly like the saved one, sleeping islands and the
+ * contact solver included, except with multiRateEnabled, where all bodies
+ * start at the full rate again. The state of the random generator can't be
+ * read, so saving reseeds it from a value drawn from it and stores that seed.
+ */
+public class Snapshot {
+    
+    static final int MAGIC = 0x50485953;
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 8 + 4 + 4 + 8;
+    static final int BODY_SIZE = 9 * 8 + 4 * 4 + 1 + 4;
+    static final int EDGE_SIZE = 2 * 4;
+    static final int WARM_START_SIZE = 8 + 8;
+    static final int ACCELERATION_SIZE = 2 * 8;
+    
+    public static void save(World world, String path) throws IOException {
+        save(world, Paths.get(path));
+    }
+    
+    public static void save(World world, Path path) throws IOException {
+        int count = world.bodies.count;
+        int edges = world.springs.edgeCount;
+        byte[] parameters = parameters(world.config);
+        long size = HEADER_SIZE + parameters.length + (long)count * BODY_SIZE + (long)edges * EDGE_SIZE
+                + (long)world.contactSolver.warmStarts() * WARM_START_SIZE + (long)accelerations(world) * ACCELERATION_SIZE;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            write(world, temp, size, parameters);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
+    /**
+     * Every parameter of config as its name and its value as text, which
+     * Config.set reads back exactly.
+     */
+    static byte[] parameters(Config config) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            String[] names = Config.names();
+            out.writeInt(names.length);
+            for(String name : names) {
+                out.writeUTF(name);
+                out.writeUTF(String.valueOf(config.get(name)));
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Number of bodies whose accelerations the integrator of the world kept
+     * for the next step, all of them or none.
+     */
+    private static int accelerations(World world) {
+        Integrator integrator = world.integrator;
+        if(integrator == null || integrator.type != world.config.integrator || !integrator.cached(world))
+            return 0;
+        return world.bodies.count;
+    }
+    
+    private static void write(World world, Path temp, long size, byte[] parameters) throws IOException {
+        Bodies b = world.bodies;
+        SpringGraph springs = world.springs;
+        Islands islands = world.islands;
+        int count = b.count;
+        int edges = springs.edgeCount;
+        int warmStarts = world.contactSolver.warmStarts();
+        int accelerations = accelerations(world);
+        long seed = world.random.nextLong();
+        world.seed(seed);
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(world.steps);
+            buffer.putDouble(world.width);
+            buffer.putDouble(world.height);
+            buffer.putInt(count);
+            buffer.putInt(edges);
+            buffer.putInt(warmStarts);
+            buffer.putInt(accelerations);
+            buffer.putInt(parameters.length);
+            buffer.putLong(seed);
+            buffer.putInt(islands.evaluatedCount());
+            buffer.putInt(islands.backoff());
+            buffer.putLong(islands.nextCheck());
+            buffer.put(parameters);
+            
+            for(double[] array : new double[][] {b.x, b.y, b.speedX, b.speedY, b.mass, b.radius, b.width, b.height, b.damping}) {
+                buffer.asDoubleBuffer().put(array, 0, count);
+                skip(buffer, count * 8);
+            }
+            for(int[] array : new int[][] {b.type, b.color, b.restSteps}) {
+                buffer.asIntBuffer().put(array, 0, count);
+                skip(buffer, count * 4);
+            }
+            IntBuffer island = buffer.asIntBuffer();
+            for(int i = 0; i < count; i++)
+                island.put(islands.island(i));
+            skip(buffer, count * 4);
+            for(int i = 0; i < count; i++)
+                buffer.put((byte)(b.sleeping[i] ? 1 : 0));
+            springs.ensureBodies(count);
+            buffer.asIntBuffer().put(springs.incoming, 0, count);
+            skip(buffer, count * 4);
+            buffer.asIntBuffer().put(springs.from, 0, edges);
+            skip(buffer, edges * 4);
+            buffer.asIntBuffer().put(springs.to, 0, edges);
+            skip(buffer, edges * 4);
+            
+            long[] keys = new long[warmStarts];
+            double[] impulses = new double[warmStarts];
+            world.contactSolver.saveWarmStarts(keys, impulses);
+            buffer.asLongBuffer().put(keys);
+            skip(buffer, warmStarts * 8);
+            buffer.asDoubleBuffer().put(impulses);
+            skip(buffer, warmStarts * 8);
+            if(accelerations > 0) {
+                buffer.asDoubleBuffer().put(world.integrator.ax, 0, count);
+                skip(buffer, count * 8);
+                buffer.asDoubleBuffer().put(world.integrator.ay, 0, count);
+            }
+            buffer.force();
+        }
+    }
+    
+    public static void load(World world, String path) throws IOException {
+        load(world, Paths.get(path));
+    }
+    
+    /**
+     * Replaces the contents and the parameters of the world with the snapshot.
+     */
+    public static void load(World world, Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if(fileSize < HEADER_SIZE)
+                throw new IOException("Not a snapshot: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("Not a snapshot: " + path);
+            int version = buffer.getInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            long steps = buffer.getLong();
+            double width = buffer.getDouble();
+            double height = buffer.getDouble();
+            int count = buffer.getInt();
+            int edges = buffer.getInt();
+            int warmStarts = buffer.getInt();
+            int accelerations = buffer.getInt();
+            int parametersSize = buffer.getInt();
+            long seed = buffer.getLong();
+            int evaluatedCount = buffer.getInt();
+            int backoff = buffer.getInt();
+            long nextCheck = buffer.getLong();
+            if(count < 0 || edges < 0 || warmStarts < 0 || accelerations != 0 && accelerations != count || parametersSize < 0
+                    || fileSize != HEADER_SIZE + parametersSize + (long)count * BODY_SIZE + (long)edges * EDGE_SIZE
+                    + (long)warmStarts * WARM_START_SIZE + (long)accelerations * ACCELERATION_SIZE)
+                throw new IOException("Truncated snapshot: " + path);
+            if(evaluatedCount < 0 || evaluatedCount > count || backoff < 1 || backoff > Islands.MAX_BACKOFF)
+                throw new IOException("Corrupt islands in snapshot: " + path);
+            
+            // everything is read and checked before the world is touched, so a
+            // corrupt file leaves the world as it was
+            byte[] parameterBytes = new byte[parametersSize];
+            buffer.get(parameterBytes);
+            String[] names, values;
+            try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(parameterBytes))) {
+                int parameters = in.readInt();
+                if(parameters < 0 || parameters > parametersSize)
+                    throw new IOException("Corrupt parameters in snapshot: " + path);
+                names = new String[parameters];
+                values = new String[parameters];
+                for(int k = 0; k < parameters; k++) {
+                    names[k] = in.readUTF();
+                    values[k] = in.readUTF();
+                }
+            } catch(EOFException e) {
+                throw new IOException("Corrupt parameters in snapshot: " + path);
+            }
+            Config config = world.config.copy();
+            try {
+                for(int k = 0; k < names.length; k++)
+                    config.set(names[k], values[k]);
+            } catch(IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " in snapshot: " + path);
+            }
+            if(config.integrator < 0 || config.integrator >= Integrator.NAMES.length)
+                throw new IOException("Unknown integrator " + config.integrator + " in snapshot: " + path);
+            
+            double[][] doubles = new double[9][count];
+            for(double[] array : doubles) {
+                buffer.asDoubleBuffer().get(array, 0, count);
+                skip(buffer, count * 8);
+            }
+            int[] type = new int[count];
+            int[] color = new int[count];
+            int[] restSteps = new int[count];
+            int[] island = new int[count];
+            for(int[] array : new int[][] {type, color, restSteps, island}) {
+                buffer.asIntBuffer().get(array, 0, count);
+                skip(buffer, count * 4);
+            }
+            boolean[] sleeping = new boolean[count];
+            for(int i = 0; i < count; i++)
+                sleeping[i] = buffer.get() != 0;
+            for(int i = 0; i < count; i++) {
+                if(type[i] != Bodies.BALL && type[i] != Bodies.BOX)
+                    throw new IOException("Unknown type " + type[i] + " of body " + i + " in snapshot: " + path);
+                if(restSteps[i] < 0 || i < evaluatedCount && (island[i] < 0 || island[i] >= evaluatedCount))
+                    throw new IOException("Corrupt sleep state of body " + i + " in snapshot: " + path);
+            }
+            
+            int[] incoming = new int[count];
+            buffer.asIntBuffer().get(incoming, 0, count);
+            skip(buffer, count * 4);
+            int[] from = new int[edges];
+            int[] to = new int[edges];
+            buffer.asIntBuffer().get(from, 0, edges);
+            skip(buffer, edges * 4);
+            buffer.asIntBuffer().get(to, 0, edges);
+            skip(buffer, edges * 4);
+            int[] counted = new int[count];
+            long[] edgeKeys = new long[edges];
+            for(int e = 0; e < edges; e++) {
+                if(from[e] < 0 || from[e] >= count || to[e] < 0 || to[e] >= count)
+                    throw new IOException("Corrupt spring " + e + " in snapshot: " + path);
+                edgeKeys[e] = SpringGraph.key(from[e], to[e]);
+                counted[to[e]]++;
+            }
+            LongHashSet keys = new LongHashSet(edges);
+            if(keys.addAll(edgeKeys, edges) != edges)
+                throw new IOException("Duplicate spring in snapshot: " + path);
+            if(!Arrays.equals(counted, incoming))
+                throw new IOException("Spring counts don't match in snapshot: " + path);
+            
+            long[] warmStartKeys = new long[warmStarts];
+            double[] impulses = new double[warmStarts];
+            buffer.asLongBuffer().get(warmStartKeys);
+            skip(buffer, warmStarts * 8);
+            buffer.asDoubleBuffer().get(impulses);
+            skip(buffer, warmStarts * 8);
+            double[] ax = new double[accelerations];
+            double[] ay = new double[accelerations];
+            buffer.asDoubleBuffer().get(ax);
+            skip(buffer, accelerations * 8);
+            buffer.asDoubleBuffer().get(ay);
+            for(int c = 0; c < warmStarts; c++)
+                if(warmStartKeys[c] < 0)
+                    throw new IOException("Corrupt contact " + c + " in snapshot: " + path);
+            
+            for(int k = 0; k < names.length; k++)
+                world.config.set(names[k], values[k]);
+            world.clear();
+            world.setBounds(width, height);
+            world.steps = steps;
+            world.seed(seed);
+            Bodies b = world.bodies;
+            b.ensureCapacity(count);
+            double[][] arrays = {b.x, b.y, b.speedX, b.speedY, b.mass, b.radius, b.width, b.height, b.damping};
+            for(int k = 0; k < arrays.length; k++)
+                System.arraycopy(doubles[k], 0, arrays[k], 0, count);
+            System.arraycopy(type, 0, b.type, 0, count);
+            System.arraycopy(color, 0, b.color, 0, count);
+            System.arraycopy(restSteps, 0, b.restSteps, 0, count);
+            System.arraycopy(sleeping, 0, b.sleeping, 0, count);
+            b.count = count;
+            // bodies are stepped at the full rate after loading, like bodies added with addBall
+            Arrays.fill(b.cluster, 0, count, -1);
+            world.islands.restore(b, island, evaluatedCount, backoff, nextCheck);
+            world.contactSolver.loadWarmStarts(warmStartKeys, impulses, warmStarts);
+            
+            // the keys were hashed once for the check above, the graph reuses them
+            world.springs.load(from, to, edges, keys, count);
+            world.integrator = Integrator.create(world.config.integrator);
+            if(accelerations > 0) {
+                world.integrator.ensureCapacity(count);
+                System.arraycopy(ax, 0, world.integrator.ax, 0, count);
+                System.arraycopy(ay, 0, world.integrator.ay, 0, count);
+                world.integrator.cache(world);
+            }
+        }
+    }
+    
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+    
+}
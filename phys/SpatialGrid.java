@@ -0,0 +1,142 @@
+package phys;
+
+import static java.lang.Math.*;
+
+public class SpatialGrid {
+    
+    private double cellSize;
+    private double minX, minY;
+    private int columns, rows;
+    private int[] cellStart = new int[2];
+    private int[] cellObjects = new int[0];
+    private int[] objectCell = new int[0];
+    // a start and an end for each of the 3x3 cells around a body
+    static final int CURSORS_SIZE = 18;
+    private final int[] cursors = new int[CURSORS_SIZE];
+    
+    /**
+     * Cell size that puts every pair of touching bodies and every pair that
+     * can be connected by a spring into neighbouring cells. Bodies are binned
+     * by (x, y), the center of a ball and the corner of a box.
+     */
+    public static double cellSizeFor(Bodies bodies, Config config) {
+        double maxRadius = 0, maxSide = 0;
+        for(int i = 0; i < bodies.count; i++) {
+            maxRadius = max(maxRadius, bodies.radius[i]);
+            maxSide = max(maxSide, max(bodies.width[i], bodies.height[i]));
+        }
+        double reach = maxRadius * 2;
+        // a box touches bodies up to its side plus a radius away from its corner on both axes
+        if(maxSide > 0)
+            reach = max(reach, (maxSide + maxRadius) * sqrt(2));
+        return max(config.springMaxDistance, reach);
+    }
+    
+    public void build(Bodies bodies, double cellSize) {
+        int count = bodies.count;
+        double[] x = bodies.x;
+        double[] y = bodies.y;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++) {
+            minX = min(minX, x[i]);
+            minY = min(minY, y[i]);
+            maxX = max(maxX, x[i]);
+            maxY = max(maxY, y[i]);
+        }
+        if(count == 0 || Double.isNaN(minX) || Double.isNaN(minY)) {
+            minX = minY = maxX = maxY = 0;
+        }
+        // keep the number of cells proportional to the number of objects
+        this.cellSize = cellSize;
+        while(true) {
+            columns = (int)((maxX - minX) / this.cellSize) + 1;
+            rows = (int)((maxY - minY) / this.cellSize) + 1;
+            if((long)columns * rows <= 4L * count + 16)
+                break;
+            this.cellSize *= 2;
+        }
+        int cells = columns * rows;
+        // sized for the most cells the loop above allows, so it doesn't grow again as the bodies spread out
+        if(cellStart.length < cells + 1)
+            cellStart = new int[4 * count + 17];
+        if(cellObjects.length < count) {
+            cellObjects = new int[count];
+            objectCell = new int[count];
+        }
+        for(int c = 0; c <= cells; c++)
+            cellStart[c] = 0;
+        for(int i = 0; i < count; i++) {
+            int cell = cellY(y[i]) * columns + cellX(x[i]);
+            objectCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for(int c = 0; c < cells; c++)
+            cellStart[c + 1] += cellStart[c];
+        // counting sort, cellStart[c] is used as the insertion cursor and shifted back afterwards
+        for(int i = 0; i < count; i++)
+            cellObjects[cellStart[objectCell[i]]++] = i;
+        for(int c = cells; c > 0; c--)
+            cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
+    }
+    
+    private int cellX(double x) {
+        return min(columns - 1, max(0, (int)((x - minX) / cellSize)));
+    }
+    
+    private int cellY(double y) {
+        return min(rows - 1, max(0, (int)((y - minY) / cellSize)));
+    }
+    
+    public void forEachPair(Bodies bodies, PairVisitor visitor) {
+        for(int i = 0; i < bodies.count; i++)
+            forEachNeighbour(i, visitor);
+    }
+    
+    public void forEachNeighbour(int i, PairVisitor visitor) {
+        forEachNeighbour(i, visitor, cursors);
+    }
+    
+    /**
+     * Visits the neighbours of i in ascending order, the same order as a
+     * loop over all bodies, so every broadphase gives the same results.
+     * Cells hold their bodies in ascending order and are merged, cursors
+     * needs CURSORS_SIZE elements and lets threads share the grid.
+     */
+    public void forEachNeighbour(int i, PairVisitor visitor, int[] cursors) {
+        int cx = objectCell[i] % columns;
+        int cy = objectCell[i] / columns;
+        int runs = 0;
+        for(int y = max(0, cy - 1); y <= min(rows - 1, cy + 1); y++) {
+            for(int x = max(0, cx - 1); x <= min(columns - 1, cx + 1); x++) {
+                int cell = y * columns + x;
+                if(cellStart[cell] == cellStart[cell + 1]) continue;
+                cursors[runs * 2] = cellStart[cell];
+                cursors[runs * 2 + 1] = cellStart[cell + 1];
+                runs++;
+            }
+        }
+        while(runs > 0) {
+            int best = 0;
+            int j = cellObjects[cursors[0]];
+            for(int r = 1; r < runs; r++) {
+                int candidate = cellObjects[cursors[r * 2]];
+                if(candidate < j) {
+                    best = r;
+                    j = candidate;
+                }
+            }
+            if(++cursors[best * 2] == cursors[best * 2 + 1]) {
+                runs--;
+                cursors[best * 2] = cursors[runs * 2];
+                cursors[best * 2 + 1] = cursors[runs * 2 + 1];
+            }
+            if(j != i)
+                visitor.visit(i, j);
+        }
+    }
+    
+}
@@ -0,0 +1,137 @@
+package phys;
+
+import java.util.Arrays;
+
+/**
+ * Directed spring connections stored as a flat edge list. A spring from i to j
+ * pulls i towards j. Membership checks go through a hash set of pair keys and
+ * stretched springs are removed in a single compaction pass per step.
+ */
+public class SpringGraph {
+    
+    int edgeCount;
+    int[] from = new int[64];
+    int[] to = new int[64];
+    int[] outgoing = new int[16];
+    int[] incoming = new int[16];
+    // counts the passes that removed or replaced edges, between them edges are only appended,
+    // so cached forces can tell which springs are new
+    long removals;
+    
+    private LongHashSet keys = new LongHashSet();
+    private int[] broken = new int[16];
+    private int brokenCount;
+    
+    static long key(int i, int j) {
+        return ((long)i << 32) | j;
+    }
+    
+    public int size() {
+        return edgeCount;
+    }
+    
+    public void ensureBodies(int count) {
+        if(outgoing.length < count) {
+            int capacity = Math.max(count, outgoing.length * 2);
+            outgoing = Arrays.copyOf(outgoing, capacity);
+            incoming = Arrays.copyOf(incoming, capacity);
+        }
+    }
+    
+    public void ensureEdges(int count) {
+        if(from.length < count) {
+            from = Arrays.copyOf(from, count);
+            to = Arrays.copyOf(to, count);
+        }
+        keys.ensureCapacity(count);
+    }
+    
+    public boolean contains(int i, int j) {
+        return keys.contains(key(i, j));
+    }
+    
+    public boolean add(int i, int j) {
+        if(!keys.add(key(i, j)))
+            return false;
+        ensureBodies(Math.max(i, j) + 1);
+        if(edgeCount == from.length) {
+            // a loaded graph can start with empty arrays
+            from = Arrays.copyOf(from, Math.max(64, edgeCount * 2));
+            to = Arrays.copyOf(to, Math.max(64, edgeCount * 2));
+        }
+        from[edgeCount] = i;
+        to[edgeCount] = j;
+        edgeCount++;
+        outgoing[i]++;
+        incoming[j]++;
+        return true;
+    }
+    
+    /**
+     * Replaces all springs with the first count edges of from and to, whose
+     * keys are all in keys. The caller has checked that the edges are
+     * distinct and connect bodies below bodyCount, so nothing is hashed again.
+     * The graph takes the arrays and the set over.
+     */
+    void load(int[] from, int[] to, int count, LongHashSet keys, int bodyCount) {
+        this.from = from;
+        this.to = to;
+        this.keys = keys;
+        edgeCount = count;
+        brokenCount = 0;
+        removals++;
+        outgoing = new int[Math.max(bodyCount, 16)];
+        incoming = new int[outgoing.length];
+        for(int e = 0; e < count; e++) {
+            outgoing[from[e]]++;
+            incoming[to[e]]++;
+        }
+    }
+    
+    /**
+     * Marks an edge for removal by the next call to removeBroken.
+     */
+    public void markBroken(int edge) {
+        if(brokenCount == broken.length)
+            broken = Arrays.copyOf(broken, brokenCount * 2);
+        broken[brokenCount++] = edge;
+    }
+    
+    /**
+     * Removes all marked edges, keeping the order of the remaining ones.
+     * Edges must have been marked in increasing order.
+     */
+    public int removeBroken() {
+        if(brokenCount == 0)
+            return 0;
+        int removed = brokenCount;
+        int next = 0;
+        int write = broken[0];
+        for(int edge = broken[0]; edge < edgeCount; edge++) {
+            if(next < brokenCount && broken[next] == edge) {
+                next++;
+                keys.remove(key(from[edge], to[edge]));
+                outgoing[from[edge]]--;
+                incoming[to[edge]]--;
+                continue;
+            }
+            from[write] = from[edge];
+            to[write] = to[edge];
+            write++;
+        }
+        edgeCount = write;
+        brokenCount = 0;
+        removals++;
+        return removed;
+    }
+    
+    public void clear() {
+        removals++;
+        edgeCount = 0;
+        brokenCount = 0;
+        keys.clear();
+        Arrays.fill(outgoing, 0);
+        Arrays.fill(incoming, 0);
+    }
+    
+}
@@ -0,0 +1,210 @@
+package phys;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static java.lang.Math.*;
+
+/**
+ * Runs a scene with every combination of the given parameter values, one
+ * World with its own Config per combination, several worlds at a time, and
+ * prints a table of the final energies and spring counts.
+ * Usage: Sweep scene steps [--size n] [--threads n] [--seed value] [--csv file] name=values...
+ * Values are either a list like springForce=0.5,1,2 or an evenly spaced
+ * range start:end:count like springDamping=0:1:5. Parameters are set before
+ * the scene is loaded, so generators see them, and again after it, so they
+ * win over set lines in scene files. Every run loads the scene with the same
+ * seed, 1 unless --seed is given, so the runs only differ in their parameters.
+ */
+public class Sweep {
+    
+    static final String[] COLUMNS = {"kinetic", "spring energy", "broken", "springs", "steps/s"};
+    static final String USAGE = "Usage: Sweep scene steps [--size n] [--threads n] [--seed value] [--csv file] name=values...";
+    
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        List<String> positional = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        List<String[]> values = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int size = 0;
+        long seed = 1;
+        String csv = null;
+        final String scene;
+        final long steps;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                int equals = args[i].indexOf('=');
+                switch(args[i]) {
+                    case "--size": size = Integer.parseInt(Headless.value(args, ++i)); break;
+                    case "--threads": threads = Integer.parseInt(Headless.value(args, ++i)); break;
+                    case "--seed": seed = Long.parseLong(Headless.value(args, ++i)); break;
+                    case "--csv": csv = Headless.value(args, ++i); break;
+                    default:
+                        if(equals > 0) {
+                            String name = args[i].substring(0, equals);
+                            String[] list = parseValues(args[i].substring(equals + 1));
+                            // fails early on unknown names and malformed values
+                            for(String value : list)
+                                new Config().set(name, value);
+                            names.add(name);
+                            values.add(list);
+                        } else {
+                            positional.add(args[i]);
+                        }
+                }
+            }
+            if(positional.size() < 2)
+                throw new IllegalArgumentException("Sweep needs a scene and a number of steps");
+            if(threads <= 0)
+                throw new IllegalArgumentException("--threads must be positive, got " + threads);
+            scene = positional.get(0);
+            steps = Long.parseLong(positional.get(1));
+        } catch(IllegalArgumentException e) {
+            Headless.exitWithUsage(e.getMessage(), USAGE);
+            return;
+        }
+        final int sceneSize = size;
+        final long sceneSeed = seed;
+    
+        List<String[]> combinations = new ArrayList<>();
+        combine(values, new String[values.size()], 0, combinations);
+        System.out.println(combinations.size() + " runs of " + scene + " for " + steps + " steps on " + threads + " threads");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<double[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for(final String[] combination : combinations) {
+            results.add(pool.submit(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    return run(scene, sceneSize, sceneSeed, steps, names, combination);
+                }
+            }));
+        }
+    
+        PrintWriter out = csv != null ? new PrintWriter(new FileWriter(csv)) : null;
+        if(out != null)
+            out.println(String.join(",", names) + (names.isEmpty() ? "" : ",") + String.join(",", COLUMNS));
+        int[] widths = new int[names.size()];
+        StringBuilder header = new StringBuilder();
+        for(int p = 0; p < names.size(); p++) {
+            widths[p] = names.get(p).length();
+            for(String value : values.get(p))
+                widths[p] = max(widths[p], value.length());
+            header.append(String.format("%" + widths[p] + "s ", names.get(p)));
+        }
+        header.append(String.format("%14s %14s %10s %10s %10s", (Object[])COLUMNS));
+        System.out.println(header);
+        try {
+            for(int r = 0; r < combinations.size(); r++) {
+                String[] combination = combinations.get(r);
+                double[] result = results.get(r).get();
+                StringBuilder line = new StringBuilder();
+                for(int p = 0; p < names.size(); p++)
+                    line.append(String.format("%" + widths[p] + "s ", combination[p]));
+                line.append(String.format("%14.4f %14.4f %10d %10d %10.1f", result[0], result[1],
+                        (long)result[2], (long)result[3], result[4]));
+                System.out.println(line);
+                if(out != null)
+                    out.println(String.join(",", combination) + (names.isEmpty() ? "" : ",")
+                            + result[0] + "," + result[1] + "," + (long)result[2] + "," + (long)result[3] + "," + result[4]);
+            }
+        } catch(ExecutionException e) {
+            // an unknown scene or a bad scene file only shows up when the runs load it
+            if(e.getCause() instanceof IllegalArgumentException)
+                Headless.exitWithUsage(e.getCause().getMessage(), USAGE);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            if(out != null)
+                out.close();
+        }
+        System.out.printf("%d runs in %.3f s%n", combinations.size(), (System.nanoTime() - start) / 1e9);
+    }
+    
+    /**
+     * Loads the scene into a new World seeded with seed and with the given
+     * parameters, steps it and returns the final kinetic energy, spring
+     * energy, springs broken, springs and steps per second.
+     */
+    static double[] run(String scene, int size, long seed, long steps, List<String> names, String[] values) {
+        World world = new World(1920, 1080, 16, new Config());
+        world.seed(seed);
+        for(int p = 0; p < names.size(); p++)
+            world.config.set(names.get(p), values[p]);
+        Scenes.load(world, scene, size);
+        for(int p = 0; p < names.size(); p++)
+            world.config.set(names.get(p), values[p]);
+        double delta = pow(2, world.config.simulationSpeedExponent);
+        long start = System.nanoTime();
+        for(long s = 0; s < steps; s++)
+            world.step(delta);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double[] result = {
+            kineticEnergy(world.bodies), springEnergy(world), world.metrics.totalSpringsBroken,
+            world.springs.size(), steps / seconds
+        };
+        world.shutdown();
+        return result;
+    }
+    
+    static double kineticEnergy(Bodies b) {
+        double energy = 0;
+        for(int i = 0; i < b.count; i++)
+            energy += b.mass[i] * (b.speedX[i] * b.speedX[i] + b.speedY[i] * b.speedY[i]) / 2;
+        return energy;
+    }
+    
+    /**
+     * Potential energy of the springs. Springs are directed, so every edge
+     * counts half and a pair connected both ways counts as one spring.
+     */
+    static double springEnergy(World world) {
+        Bodies b = world.bodies;
+        SpringGraph springs = world.springs;
+        double energy = 0;
+        for(int e = 0; e < springs.edgeCount; e++) {
+            int i = springs.from[e], j = springs.to[e];
+            double offset = Utils.distance(b.x[i], b.x[j], b.y[i], b.y[j]) - world.config.springDistance;
+            energy += world.config.springForce * offset * offset / 4;
+        }
+        return energy;
+    }
+    
+    private static String[] parseValues(String text) {
+        String[] range = text.split(":");
+        if(range.length == 1)
+            return text.split(",");
+        if(range.length != 3)
+            throw new IllegalArgumentException("Expected start:end:count, got " + text);
+        double first = Double.parseDouble(range[0]), last = Double.parseDouble(range[1]);
+        int count = Integer.parseInt(range[2]);
+        if(count < 1)
+            throw new IllegalArgumentException("Range " + text + " needs at least one value");
+        String[] result = new String[count];
+        for(int k = 0; k < count; k++) {
+            double value = count == 1 ? first : first + (last - first) * k / (count - 1);
+            // whole numbers without a fraction, so int parameters can be swept too
+            result[k] = value == rint(value) && abs(value) < 1e15 ? Long.toString((long)value) : Double.toString(value);
+        }
+        return result;
+    }
+    
+    private static void combine(List<String[]> values, String[] current, int index, List<String[]> result) {
+        if(index == values.size()) {
+            result.add(current.clone());
+            return;
+        }
+        for(String value : values.get(index)) {
+            current[index] = value;
+            combine(values, current, index + 1, result);
+        }
+    }
+    
+}
@@ -0,0 +1,112 @@
+package phys;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import static phys.TrajectoryRecorder.*;
+
+/**
+ * Reads a file written by TrajectoryRecorder frame by frame into a World,
+ * which can then be published to a FrameBuffer without running any physics.
+ * Springs are not recorded, so the world only contains bodies.
+ */
+public class TrajectoryReader {
+    
+    private final DataInputStream in;
+    private long[] values = new long[0];
+    private byte[] data = new byte[0];
+    private boolean hasBodies;
+    
+    public TrajectoryReader(String path) throws IOException {
+        in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16),
+                new Inflater(), 1 << 16));
+        if(in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException(path + " is not a trajectory file");
+        }
+        int version = in.readInt();
+        if(version != VERSION) {
+            in.close();
+            throw new IOException("Unsupported trajectory version " + version);
+        }
+    }
+    
+    /**
+     * Loads the next frame into the world, returns false at the end of the file.
+     */
+    public boolean next(World world) throws IOException {
+        Bodies b = world.bodies;
+        while(true) {
+            int kind;
+            try {
+                kind = in.readByte();
+            } catch(EOFException e) {
+                return false;
+            }
+            if(kind == BODIES) {
+                int count = in.readInt();
+                if(count < 0)
+                    throw new IOException("Corrupt trajectory: negative body count");
+                b.clear();
+                world.springs.clear();
+                b.ensureCapacity(count);
+                for(int i = 0; i < count; i++) {
+                    b.type[i] = in.readByte();
+                    b.radius[i] = in.readFloat();
+                    b.width[i] = in.readFloat();
+                    b.height[i] = in.readFloat();
+                    b.color[i] = in.readInt();
+                }
+                b.count = count;
+                hasBodies = true;
+                continue;
+            }
+            if(kind != KEYFRAME && kind != DELTA)
+                throw new IOException("Corrupt trajectory: unknown record " + kind);
+            long step = in.readLong();
+            int count = in.readInt();
+            int length = in.readInt();
+            if(!hasBodies || count != b.count || length < 0)
+                throw new IOException("Corrupt trajectory: frame doesn't match its bodies");
+            if(kind == DELTA && values.length < count * 4)
+                throw new IOException("Corrupt trajectory: delta frame without keyframe");
+            if(data.length < length)
+                data = new byte[length];
+            in.readFully(data, 0, length);
+            if(values.length < count * 4)
+                values = new long[count * 4];
+            int offset = 0;
+            for(int slot = 0; slot < count * 4; slot++) {
+                long zigzag = 0;
+                int shift = 0;
+                byte next;
+                do {
+                    if(offset >= length)
+                        throw new IOException("Corrupt trajectory: truncated frame");
+                    next = data[offset++];
+                    zigzag |= (long)(next & 0x7F) << shift;
+                    shift += 7;
+                } while(next < 0);
+                long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                values[slot] = kind == KEYFRAME ? delta : values[slot] + delta;
+            }
+            for(int i = 0; i < count; i++) {
+                b.x[i] = values[i * 4] / POSITION_SCALE;
+                b.y[i] = values[i * 4 + 1] / POSITION_SCALE;
+                b.speedX[i] = values[i * 4 + 2] / SPEED_SCALE;
+                b.speedY[i] = values[i * 4 + 3] / SPEED_SCALE;
+            }
+            world.steps = step;
+            return true;
+        }
+    }
+    
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,216 @@
+package phys;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams body positions and speeds of every recorded step to a file.
+ * The simulation thread only copies the arrays into a pooled capture and
+ * queues it, a background thread quantizes the values, encodes them as
+ * zigzag varint deltas from the previous frame and writes them through a
+ * deflater. When the writer falls behind and no capture is free, frames are
+ * dropped instead of blocking the simulation.
+ *
+ * File layout after deflate: magic, version, then records. A BODIES record
+ * holds body count, type, size and colour, a KEYFRAME record absolute
+ * quantized values and a DELTA record differences to the frame before.
+ */
+public class TrajectoryRecorder {
+    
+    static final int MAGIC = 0x50485452;
+    static final int VERSION = 1;
+    static final byte BODIES = 1;
+    static final byte KEYFRAME = 2;
+    static final byte DELTA = 3;
+    static final double POSITION_SCALE = 256;
+    static final double SPEED_SCALE = 4096;
+    static final int KEYFRAME_INTERVAL = 100;
+    
+    private final ArrayBlockingQueue<Capture> free;
+    private final ArrayBlockingQueue<Capture> pending;
+    private final Capture end = new Capture();
+    private final Thread writer;
+    private final DataOutputStream out;
+    private volatile IOException error;
+    
+    private int lastCount = -1;
+    private long lastGeneration = -1;
+    long recorded, dropped;
+    
+    private long[] previous = new long[0];
+    private byte[] scratch = new byte[0];
+    private int framesSinceKeyframe;
+    
+    public TrajectoryRecorder(String path) throws IOException {
+        this(path, 16);
+    }
+    
+    public TrajectoryRecorder(String path, int queueSize) throws IOException {
+        out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16),
+                new Deflater(Deflater.BEST_SPEED), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        free = new ArrayBlockingQueue<Capture>(queueSize);
+        pending = new ArrayBlockingQueue<Capture>(queueSize + 1);
+        for(int k = 0; k < queueSize; k++)
+            free.add(new Capture());
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "trajectory-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Called by the simulation thread after a step, never blocks.
+     */
+    public void record(World world) {
+        Capture capture = free.poll();
+        if(capture == null || error != null) {
+            dropped++;
+            if(capture != null)
+                free.offer(capture);
+            return;
+        }
+        Bodies b = world.bodies;
+        int count = b.count;
+        // bodies are sent again when they change, even a load with the same count replaces them all
+        capture.copy(b, world.steps, count != lastCount || world.generation != lastGeneration);
+        lastCount = count;
+        lastGeneration = world.generation;
+        pending.offer(capture);
+        recorded++;
+    }
+    
+    /**
+     * Writes all queued frames and closes the file.
+     */
+    public void close() throws IOException {
+        try {
+            pending.put(end);
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if(error != null)
+            throw error;
+    }
+    
+    private void write() {
+        while(true) {
+            Capture capture;
+            try {
+                capture = pending.take();
+            } catch(InterruptedException e) {
+                return;
+            }
+            if(capture == end)
+                return;
+            try {
+                encode(capture);
+            } catch(IOException e) {
+                error = e;
+            }
+            free.offer(capture);
+        }
+    }
+    
+    private void encode(Capture capture) throws IOException {
+        if(error != null)
+            return;
+        int count = capture.count;
+        if(capture.withBodies) {
+            out.writeByte(BODIES);
+            out.writeInt(count);
+            for(int i = 0; i < count; i++) {
+                out.writeByte(capture.type[i]);
+                out.writeFloat((float)capture.radius[i]);
+                out.writeFloat((float)capture.width[i]);
+                out.writeFloat((float)capture.height[i]);
+                out.writeInt(capture.color[i]);
+            }
+        }
+        boolean keyframe = capture.withBodies || framesSinceKeyframe >= KEYFRAME_INTERVAL || previous.length < count * 4;
+        if(previous.length < count * 4)
+            previous = new long[count * 4];
+        if(scratch.length < count * 4 * 10)
+            scratch = new byte[count * 4 * 10];
+        int length = 0;
+        for(int i = 0; i < count; i++) {
+            length = putValue(i * 4, (long)Math.rint(capture.x[i] * POSITION_SCALE), keyframe, length);
+            length = putValue(i * 4 + 1, (long)Math.rint(capture.y[i] * POSITION_SCALE), keyframe, length);
+            length = putValue(i * 4 + 2, (long)Math.rint(capture.speedX[i] * SPEED_SCALE), keyframe, length);
+            length = putValue(i * 4 + 3, (long)Math.rint(capture.speedY[i] * SPEED_SCALE), keyframe, length);
+        }
+        out.writeByte(keyframe ? KEYFRAME : DELTA);
+        out.writeLong(capture.step);
+        out.writeInt(count);
+        out.writeInt(length);
+        out.write(scratch, 0, length);
+        framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+    }
+    
+    private int putValue(int slot, long value, boolean keyframe, int offset) {
+        long delta = keyframe ? value : value - previous[slot];
+        previous[slot] = value;
+        long zigzag = (delta << 1) ^ (delta >> 63);
+        while((zigzag & ~0x7FL) != 0) {
+            scratch[offset++] = (byte)((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        scratch[offset++] = (byte)zigzag;
+        return offset;
+    }
+    
+    private static class Capture {
+        
+        long step;
+        int count;
+        boolean withBodies;
+        double[] x = new double[0], y = new double[0];
+        double[] speedX = new double[0], speedY = new double[0];
+        double[] radius = new double[0], width = new double[0], height = new double[0];
+        int[] type = new int[0], color = new int[0];
+        
+        void copy(Bodies b, long step, boolean withBodies) {
+            this.step = step;
+            this.withBodies = withBodies;
+            count = b.count;
+            if(x.length < count) {
+                x = new double[b.x.length];
+                y = new double[b.x.length];
+                speedX = new double[b.x.length];
+                speedY = new double[b.x.length];
+            }
+            System.arraycopy(b.x, 0, x, 0, count);
+            System.arraycopy(b.y, 0, y, 0, count);
+            System.arraycopy(b.speedX, 0, speedX, 0, count);
+            System.arraycopy(b.speedY, 0, speedY, 0, count);
+            if(withBodies) {
+                if(type.length < count) {
+                    radius = new double[b.x.length];
+                    width = new double[b.x.length];
+                    height = new double[b.x.length];
+                    type = new int[b.x.length];
+                    color = new int[b.x.length];
+                }
+                System.arraycopy(b.radius, 0, radius, 0, count);
+                System.arraycopy(b.width, 0, width, 0, count);
+                System.arraycopy(b.height, 0, height, 0, count);
+                System.arraycopy(b.type, 0, type, 0, count);
+                System.arraycopy(b.color, 0, color, 0, count);
+            }
+        }
+    
+    }
+
+}
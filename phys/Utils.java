@@ -1,20 +1,46 @@
 package phys;
 
 import java.awt.Color;
+import java.util.SplittableRandom;
 import static java.lang.Math.*;
 
 public class Utils {
     
-    public static double randomBetween(double min, double max) {
-        return random() * (max - min) + min;
+    // Color objects by RGB value, so renderers don't create one every time the colour changes
+    private static final Color[] COLORS = new Color[4096];
+    
+    public static double randomBetween(SplittableRandom random, double min, double max) {
+        return random.nextDouble() * (max - min) + min;
+    }
+    
+    public static double nonLinearRandom(SplittableRandom random, double min, double max, Function func) {
+        return func.f(random.nextDouble()) * (max - min) + min;
+    }
+    
+    public static Color randomColor(SplittableRandom random) {
+        return new Color((float)random.nextDouble(), (float)random.nextDouble(), (float)random.nextDouble());
     }
     
-    public static double nonLinearRandom(double min, double max, Function func) {
-        return func.f(random()) * (max - min) + min;
+    /**
+     * Same as randomColor, without creating a Color.
+     */
+    public static int randomRGB(SplittableRandom random) {
+        int r = (int)(random.nextDouble() * 255 + 0.5), g = (int)(random.nextDouble() * 255 + 0.5), b = (int)(random.nextDouble() * 255 + 0.5);
+        return 0xff000000 | r << 16 | g << 8 | b;
     }
     
-    public static Color randomColor() {
-        return new Color((float)random(), (float)random(), (float)random());
+    /**
+     * Opaque Color for an RGB value, shared between calls.
+     */
+    public static Color color(int rgb) {
+        rgb |= 0xff000000;
+        int slot = (rgb * 0x9E3779B1) >>> 20;
+        Color color = COLORS[slot];
+        if(color == null || color.getRGB() != rgb) {
+            color = new Color(rgb);
+            COLORS[slot] = color;
+        }
+        return color;
     }
     
     public static double distance(double x1, double x2, double y1, double y2) {
@@ -0,0 +1,33 @@
+package phys;
+
+/**
+ * Gravity and move kernels that use SIMD instructions. The only implementation
+ * is VectorApiKernels in the vector source directory, which needs the
+ * incubating Vector API, so this package compiles without it. Get the kernels
+ * from VectorSupport, which falls back to the scalar code when they can't be
+ * loaded.
+ */
+interface VectorKernels {
+    
+    int lanes();
+    
+    /**
+     * Adds the gravity of all bodies on the bodies from..to-1, multiplied by
+     * delta, to outX and outY. Same as calculateGravity for every pair, up to
+     * rounding, since the sum is taken in a different order. Only used with
+     * Config.vectorGravityEnabled.
+     */
+    void gravity(Config config, Bodies b, int from, int to, double delta, double[] outX, double[] outY);
+    
+    /**
+     * Moves the bodies from..to-1 by their speed times delta and keeps them
+     * inside the bounds, with the same results as PhysObject.move.
+     */
+    void move(Bodies b, int from, int to, double maxX, double maxY, double delta);
+    
+    /**
+     * Same as PhysObject.clamp for the bodies from..to-1.
+     */
+    void clamp(Bodies b, int from, int to, double maxX, double maxY);
+
+}
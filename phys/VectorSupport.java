@@ -0,0 +1,48 @@
+package phys;
+
+/**
+ * Loads VectorKernels at runtime. The implementation is compiled separately
+ * from the vector source directory and needs the jdk.incubator.vector
+ * module, which is only present when the JVM was started with --add-modules
+ * jdk.incubator.vector, and vectors of at least two doubles. Without any of
+ * these KERNELS is null and the scalar kernels are used.
+ */
+final class VectorSupport {
+    
+    static final VectorKernels KERNELS = load();
+    static final boolean AVAILABLE = KERNELS != null;
+    private static final String DESCRIPTION = AVAILABLE ? "Vector API, " + KERNELS.lanes() + " lanes" : "Vector API unavailable";
+    
+    private static VectorKernels load() {
+        try {
+            VectorKernels kernels = Class.forName("phys.VectorApiKernels").asSubclass(VectorKernels.class)
+                    .getDeclaredConstructor().newInstance();
+            return kernels.lanes() >= 2 ? kernels : null;
+        } catch(ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    
+    /**
+     * True if the vector kernels should be used for the next pass.
+     */
+    static boolean enabled(Config config) {
+        return AVAILABLE && config.vectorEnabled;
+    }
+    
+    /**
+     * True if radial gravity should use the vector kernel, which sums in a
+     * different order and so only matches the scalar gravity up to rounding.
+     */
+    static boolean gravityEnabled(Config config) {
+        return enabled(config) && config.vectorGravityEnabled;
+    }
+    
+    static String describe() {
+        return DESCRIPTION;
+    }
+    
+    private VectorSupport() {
+    }
+
+}
@@ -0,0 +1,572 @@
+package phys;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The simulation itself, without any AWT code. Bodies move inside the
+ * rectangle from (0, 0) to (width, height) and every call to step advances
+ * the simulation by the given delta.
+ */
+public class World {
+    
+    final Config config;
+    final Bodies bodies;
+    final SpringGraph springs = new SpringGraph();
+    private final SpatialGrid grid = new SpatialGrid();
+    private final QuadTree quadTree = new QuadTree();
+    private final NeighbourList neighbours = new NeighbourList();
+    final Islands islands = new Islands();
+    final ContactSolver contactSolver = new ContactSolver();
+    final MultiRate multiRate = new MultiRate();
+    private ParallelStep parallelStep;
+    Integrator integrator;
+    double width, height;
+    long steps;
+    // counts the times the bodies were replaced, by clear and so by Snapshot.load,
+    // so observers like TrajectoryRecorder don't take a new world for the old one
+    long generation;
+    double[] previousX = new double[0], previousY = new double[0];
+    int previousCount;
+    final Metrics metrics = new Metrics();
+    // scenes and generators draw from this instead of Math.random, see seed
+    SplittableRandom random = new SplittableRandom();
+    private final double[] contact = new double[3];
+    
+    private final PairVisitor springDiscovery = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            tryConnectSpring(i, j);
+        }
+    };
+    
+    private final PairVisitor awakeSpringDiscovery = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            if(bodies.sleeping[i] && bodies.sleeping[j]) return;
+            if(bodies.cluster[i] >= 0 && bodies.cluster[i] == bodies.cluster[j]) return;
+            tryConnectSpring(i, j);
+        }
+    };
+    
+    private final PairVisitor collision = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            // both orders are visited, the metrics count the pair once
+            boolean counted = i < j;
+            if(counted)
+                metrics.pairsTested++;
+            if(PhysObject.collide(config, bodies, i, j, contact) && counted)
+                metrics.pairsResolved++;
+        }
+    };
+    
+    /**
+     * Skips pairs of sleeping bodies and pairs inside a coarse cluster, wakes
+     * the island of a sleeping body that got hit and releases the cluster of
+     * a coarse one.
+     */
+    private final PairVisitor awakeCollision = new PairVisitor() {
+        @Override
+        public void visit(int i, int j) {
+            boolean sleepingI = bodies.sleeping[i];
+            boolean sleepingJ = bodies.sleeping[j];
+            if(sleepingI && sleepingJ) return;
+            if(bodies.cluster[i] >= 0 && bodies.cluster[i] == bodies.cluster[j]) return;
+            boolean counted = i < j;
+            if(counted)
+                metrics.pairsTested++;
+            if(PhysObject.collide(config, bodies, i, j, contact)) {
+                if(counted)
+                    metrics.pairsResolved++;
+                if(sleepingI) islands.wake(bodies, i);
+                if(sleepingJ) islands.wake(bodies, j);
+                multiRate.release(bodies, i);
+                multiRate.release(bodies, j);
+            }
+        }
+    };
+    
+    public World(double width, double height) {
+        this(width, height, 16);
+    }
+    
+    public World(double width, double height, int capacity) {
+        this(width, height, capacity, new Config());
+    }
+    
+    public World(double width, double height, int capacity, Config config) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        bodies = new Bodies(capacity, config);
+    }
+    
+    public void setBounds(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Restarts the random generator of the world from a seed, so the scenes
+     * loaded after it come out the same every run.
+     */
+    public void seed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+    
+    /**
+     * Hash of the positions and speeds of every body, bit for bit, and of the
+     * number of springs. Two runs that print the same hashes every few steps
+     * went through the same states, the first hash that differs shows the
+     * step where they split. The hash isn't kept up to date by the step, every
+     * call walks all bodies, so call it at checkpoints rather than every step.
+     */
+    public long stateHash() {
+        Bodies b = bodies;
+        long hash = mix(b.count, springs.size());
+        for(int i = 0; i < b.count; i++) {
+            hash = mix(hash, Double.doubleToLongBits(b.x[i]));
+            hash = mix(hash, Double.doubleToLongBits(b.y[i]));
+            hash = mix(hash, Double.doubleToLongBits(b.speedX[i]));
+            hash = mix(hash, Double.doubleToLongBits(b.speedY[i]));
+        }
+        return hash;
+    }
+    
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+    
+    public void clear() {
+        bodies.clear();
+        springs.clear();
+        neighbours.clear();
+        contactSolver.clear();
+        islands.wakeAll(bodies);
+        multiRate.clear(bodies);
+        steps = 0;
+        previousCount = 0;
+        generation++;
+    }
+    
+    public void shutdown() {
+        if(parallelStep != null)
+            parallelStep.shutdown();
+        parallelStep = null;
+    }
+    
+    public void initializeSprings() {
+        initializeSprings(config.springInitialDistance);
+    }
+    
+    /**
+     * Connects every pair of bodies that are at most distance apart, finding
+     * the pairs with the spatial grid unless the broadphase is disabled.
+     */
+    public void initializeSprings(final double distance) {
+        springs.ensureBodies(bodies.count);
+        PairVisitor connect = new PairVisitor() {
+            @Override
+            public void visit(int i, int j) {
+                if(Utils.distance(bodies.x[i], bodies.x[j], bodies.y[i], bodies.y[j]) <= distance)
+                    springs.add(i, j);
+            }
+        };
+        if(config.broadphaseEnabled) {
+            // a cell size of 0 would make the grid infinitely fine
+            grid.build(bodies, Math.max(distance, 1));
+            grid.forEachPair(bodies, connect);
+        } else {
+            for(int i = 0; i < bodies.count; i++) {
+                for(int j = 0; j < bodies.count; j++) {
+                    if(i == j) continue;
+                    connect.visit(i, j);
+                }
+            }
+        }
+    }
+    
+    public PhysObject generateRandomPhysObject(String type) {
+        double x = Utils.randomBetween(random, 25, width - 25);
+        double y = Utils.randomBetween(random, 25, height - 25);
+//        double radius = Utils.nonLinearRandom(random, 5, 50, new Function() {
+//            @Override
+//            public double f(double arg) {
+//                return pow(arg, 100);
+//            }
+//        });
+        double radius = Utils.randomBetween(random, 5, 5);
+        double width = Utils.randomBetween(random, 10, 50);
+        double height = Utils.randomBetween(random, 10, 50);
+        double speedX = Utils.randomBetween(random, 0, 0);
+        double speedY = Utils.randomBetween(random, 0, 0);
+        Color color = Utils.randomColor(random);
+        PhysObject result = null;
+        switch(type) {
+            case "box": result = new Box(bodies, x, y, width, height, speedX, speedY, color); break;
+            case "ball" : result = new Ball(bodies, x, y, radius, speedX, speedY, color); break;
+            default: System.out.println("Unknown PhysObject type: " + type + "\n");
+        }
+        return result;
+    }
+    
+    /**
+     * Remembers the current positions, so a renderer can interpolate between
+     * them and the positions after the next step.
+     */
+    public void savePreviousPositions() {
+        int count = bodies.count;
+        if(previousX.length < count) {
+            previousX = new double[bodies.x.length];
+            previousY = new double[bodies.x.length];
+        }
+        System.arraycopy(bodies.x, 0, previousX, 0, count);
+        System.arraycopy(bodies.y, 0, previousY, 0, count);
+        previousCount = count;
+    }
+    
+    public void step(double delta) {
+        steps++;
+        metrics.beginStep();
+        if(config.parallelEnabled) {
+            if(parallelStep == null || parallelStep.getThreads() != config.parallelThreads) {
+                shutdown();
+                parallelStep = new ParallelStep(config.parallelThreads);
+            }
+            if(islands.anySleeping())
+                islands.wakeAll(bodies);
+            if(multiRate.anyCoarse())
+                releaseClusters();
+            parallelStep.step(config, bodies, springs, grid, neighbours, quadTree, width, height, delta, metrics);
+            metrics.substeps = 1;
+            metrics.endStep(bodies.count, springs.edgeCount);
+            return;
+        }
+        if(integrator == null || integrator.type != config.integrator)
+            integrator = Integrator.create(config.integrator);
+        boolean sleeping = config.sleepingEnabled && integrator.type == Integrator.PHASED;
+        if(!sleeping && islands.anySleeping())
+            islands.wakeAll(bodies);
+        boolean multiRated = config.multiRateEnabled && integrator.type == Integrator.PHASED;
+        if(!multiRated && multiRate.anyCoarse())
+            releaseClusters();
+        long time = System.nanoTime();
+        if(config.springsEnabled) {
+            discoverSprings();
+            metrics.phase(Metrics.SPRING_DISCOVERY, time);
+        }
+        int substeps = config.adaptiveSubstepping ? substepsFor(delta) : 1;
+        for(int s = 0; s < substeps; s++) {
+            integrator.integrate(this, delta / substeps);
+            if(config.collisionsEnabled) {
+                time = System.nanoTime();
+                collide();
+                metrics.phase(Metrics.COLLISIONS, time);
+            }
+        }
+        if(multiRated) {
+            time = System.nanoTime();
+            stepClusters(delta);
+            metrics.phase(Metrics.MOVE, time);
+        }
+        if(sleeping)
+            islands.update(bodies, springs, grid, steps, config);
+        metrics.substeps = substeps;
+        metrics.sleeping = islands.sleepingBodies();
+        metrics.coarse = multiRate.coarseBodies();
+        metrics.endStep(bodies.count, springs.edgeCount);
+    }
+    
+    void applyGravity(double delta) {
+        int count = bodies.count;
+        islands.collectAwake(bodies);
+        if(config.barnesHutEnabled) {
+            quadTree.build(bodies);
+            for(int k = 0; k < islands.awakeCount; k++)
+                quadTree.applyGravity(islands.awake[k], config.barnesHutTheta, config.gravityRadialForce, delta);
+        } else if(VectorSupport.gravityEnabled(config)) {
+            for(int r = 0; r < islands.runCount; r++)
+                VectorSupport.KERNELS.gravity(config, bodies, islands.runStart[r], islands.runEnd[r], delta, bodies.speedX, bodies.speedY);
+        } else {
+            for(int k = 0; k < islands.awakeCount; k++) {
+                int i = islands.awake[k];
+                for(int j = 0; j < count; j++) {
+                    if(i == j) continue;
+                    PhysObject.calculateGravity(config, bodies, i, j, delta);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Advances the coarse clusters that are due or were released during this
+     * step and divides the bodies into clusters again when it is time, see
+     * MultiRate.
+     */
+    private void stepClusters(double delta) {
+        multiRate.advanceTime(delta);
+        boolean repartition = multiRate.checkDue(steps);
+        boolean changed = multiRate.anyReleasing() || repartition;
+        for(int c = 0; c < multiRate.clusterCount(); c++)
+            if(multiRate.alive(c) && (repartition || multiRate.due(c, steps)))
+                advanceCluster(c);
+        // advancing can release more clusters, which are then already up to date
+        multiRate.releaseQueued(bodies);
+        if(repartition)
+            multiRate.partition(bodies, springs, config, width, height, steps);
+        if(changed || multiRate.anyReleasing())
+            islands.awakeChanged();
+    }
+    
+    /**
+     * Moves the members of a cluster together for the time since it was last
+     * advanced and applies the forces on them, see MultiRate.
+     */
+    private void advanceCluster(int c) {
+        double delta = multiRate.elapsed(c, steps, config);
+        if(delta == 0)
+            return;
+        multiRate.move(bodies, c, width, height, delta);
+        int start = multiRate.clusterStart[c], end = multiRate.clusterStart[c + 1];
+        for(int k = start; k < end; k++) {
+            int i = multiRate.clusterMembers[k];
+            if(config.gravityRadialEnabled)
+                applyGravity(i, delta);
+            if(config.gravityVerticalEnabled)
+                PhysObject.calculateVerticalGravity(config, bodies, i, delta);
+            if(config.backgroundFrictionEnabled)
+                PhysObject.calculateBackgroudFriction(config, bodies, i, delta);
+        }
+        if(multiRate.releasing(c))
+            return;
+        multiRate.shareMomentum(bodies, c, config);
+        multiRate.checkWalls(bodies, c, width, height);
+    }
+    
+    /**
+     * Advances every cluster to the current time and puts all bodies back to the full rate.
+     */
+    private void releaseClusters() {
+        for(int c = 0; c < multiRate.clusterCount(); c++)
+            if(multiRate.alive(c))
+                advanceCluster(c);
+        multiRate.releaseAll(bodies);
+        islands.awakeChanged();
+    }
+    
+    /**
+     * Radial gravity on a single body, with the quadtree of the last gravity
+     * pass when Barnes-Hut is enabled.
+     */
+    private void applyGravity(int i, double delta) {
+        if(config.barnesHutEnabled) {
+            quadTree.applyGravity(i, config.barnesHutTheta, config.gravityRadialForce, delta);
+            return;
+        }
+        for(int j = 0; j < bodies.count; j++)
+            if(i != j)
+                PhysObject.calculateGravity(config, bodies, i, j, delta);
+    }
+    
+    /**
+     * Number of substeps for the next step, so that no body moves further than
+     * adaptiveMaxDisplacement and more strained springs get smaller steps.
+     */
+    int substepsFor(double delta) {
+        double maxSpeed2 = 0;
+        for(int i = 0; i < bodies.count; i++)
+            maxSpeed2 = Math.max(maxSpeed2, bodies.speedX[i] * bodies.speedX[i] + bodies.speedY[i] * bodies.speedY[i]);
+        double maxStrain = 0;
+        if(config.springsEnabled) {
+            for(int e = 0; e < springs.edgeCount; e++) {
+                int i = springs.from[e];
+                int j = springs.to[e];
+                double distance = Utils.distance(bodies.x[i], bodies.x[j], bodies.y[i], bodies.y[j]);
+                maxStrain = Math.max(maxStrain, Math.abs(distance - config.springDistance) / config.springDistance);
+            }
+        }
+        double substeps = Math.max(Math.sqrt(maxSpeed2) * delta / config.adaptiveMaxDisplacement, maxStrain / config.adaptiveMaxStrain);
+        if(!(substeps < config.maxAdaptiveSubsteps))
+            return config.maxAdaptiveSubsteps;
+        return Math.max(1, (int)Math.ceil(substeps));
+    }
+    
+    /**
+     * Sets ax and ay to the accelerations caused by gravity and springs at the
+     * current state of the bodies, for the integrators that use force buffers.
+     */
+    void accumulateForces(double[] ax, double[] ay) {
+        int count = bodies.count;
+        Arrays.fill(ax, 0, count, 0);
+        Arrays.fill(ay, 0, count, 0);
+        long time = System.nanoTime();
+        if(config.gravityRadialEnabled) {
+            if(config.barnesHutEnabled) {
+                quadTree.build(bodies);
+                for(int i = 0; i < count; i++)
+                    quadTree.accelerate(i, config.barnesHutTheta, config.gravityRadialForce, ax, ay);
+            } else if(VectorSupport.gravityEnabled(config)) {
+                VectorSupport.KERNELS.gravity(config, bodies, 0, count, 1, ax, ay);
+            } else {
+                for(int i = 0; i < count; i++)
+                    for(int j = 0; j < count; j++) {
+                        if(i == j) continue;
+                        PhysObject.gravityAcceleration(config, bodies, i, j, ax, ay);
+                    }
+            }
+            time = metrics.phase(Metrics.GRAVITY, time);
+        }
+        if(config.gravityVerticalEnabled) {
+            for(int i = 0; i < count; i++)
+                ay[i] += config.gravityVerticalForce;
+            time = metrics.phase(Metrics.VERTICAL_GRAVITY, time);
+        }
+        if(config.springsEnabled) {
+            accumulateSprings(ax, ay, 0);
+            metrics.phase(Metrics.SPRING_FORCES, time);
+        }
+    }
+    
+    /**
+     * Adds the accelerations of the springs from edge first on to ax and ay.
+     */
+    void accumulateSprings(double[] ax, double[] ay, int first) {
+        for(int e = first; e < springs.edgeCount; e++)
+            PhysObject.springAcceleration(config, bodies, springs.from[e], springs.to[e], ax, ay);
+    }
+    
+    /**
+     * Removes the springs stretched past springMaxDistance.
+     */
+    void breakSprings() {
+        for(int e = 0; e < springs.edgeCount; e++) {
+            int i = springs.from[e];
+            int j = springs.to[e];
+            if(Utils.distance(bodies.x[i], bodies.x[j], bodies.y[i], bodies.y[j]) > config.springMaxDistance)
+                springs.markBroken(e);
+        }
+        metrics.springsBroken += springs.removeBroken();
+    }
+    
+    void applyVerticalGravity(double delta) {
+        islands.collectAwake(bodies);
+        for(int k = 0; k < islands.awakeCount; k++)
+            PhysObject.calculateVerticalGravity(config, bodies, islands.awake[k], delta);
+    }
+    
+    void discoverSprings() {
+        int count = bodies.count;
+        springs.ensureBodies(count);
+        PairVisitor visitor = islands.anySleeping() || multiRate.anyCoarse() ? awakeSpringDiscovery : springDiscovery;
+        if(config.broadphaseEnabled && config.neighbourListEnabled) {
+            neighbours.update(bodies, grid, config);
+            neighbours.forEachPair(visitor);
+        } else if(config.broadphaseEnabled) {
+            grid.build(bodies, SpatialGrid.cellSizeFor(bodies, config));
+            grid.forEachPair(bodies, visitor);
+        } else {
+            for(int i = 0; i < count; i++) {
+                if(springs.outgoing[i] >= config.springMaxConnections) continue;
+                for(int j = 0; j < count; j++) {
+                    if(i == j) continue;
+                    if(springs.outgoing[i] >= config.springMaxConnections) break;
+                    tryConnectSpring(i, j);
+                }
+            }
+        }
+    }
+    
+    void applySprings(double delta) {
+        if(islands.anySleeping() || multiRate.anyCoarse()) {
+            applySpringsAwake(delta);
+            return;
+        }
+        // springs stay scalar: each one reads the speeds the springs before it left, which leaves too little to vectorize
+        for(int e = 0; e < springs.edgeCount; e++)
+            if(!PhysObject.calculateSprings(config, bodies, springs.from[e], springs.to[e], delta))
+                springs.markBroken(e);
+        metrics.springsBroken += springs.removeBroken();
+    }
+    
+    /**
+     * Springs between two sleeping bodies and springs inside a coarse cluster
+     * are skipped, a spring between a sleeping and an awake body wakes the
+     * island of the sleeping one and a strained spring to a coarse body
+     * releases its cluster.
+     */
+    private void applySpringsAwake(double delta) {
+        for(int e = 0; e < springs.edgeCount; e++) {
+            int i = springs.from[e];
+            int j = springs.to[e];
+            if(bodies.sleeping[i] && bodies.sleeping[j])
+                continue;
+            int cluster = bodies.cluster[i];
+            if(cluster >= 0 && cluster == bodies.cluster[j])
+                continue;
+            if(bodies.sleeping[i]) islands.wake(bodies, i);
+            if(bodies.sleeping[j]) islands.wake(bodies, j);
+            if(!PhysObject.calculateSprings(config, bodies, i, j, delta))
+                springs.markBroken(e);
+            if(cluster >= 0 || bodies.cluster[j] >= 0)
+                multiRate.checkSpring(config, bodies, i, j);
+        }
+        metrics.springsBroken += springs.removeBroken();
+    }
+    
+    void applyFriction(double delta) {
+        islands.collectAwake(bodies);
+        for(int k = 0; k < islands.awakeCount; k++)
+            PhysObject.calculateBackgroudFriction(config, bodies, islands.awake[k], delta);
+    }
+    
+    void moveBodies(double delta) {
+        islands.collectAwake(bodies);
+        if(VectorSupport.enabled(config)) {
+            for(int r = 0; r < islands.runCount; r++)
+                VectorSupport.KERNELS.move(bodies, islands.runStart[r], islands.runEnd[r], width, height, delta);
+            return;
+        }
+        for(int k = 0; k < islands.awakeCount; k++)
+            PhysObject.move(bodies, islands.awake[k], 0, 0, width, height, delta);
+    }
+    
+    void collide() {
+        int count = bodies.count;
+        PairVisitor visitor = islands.anySleeping() || multiRate.anyCoarse() ? awakeCollision : collision;
+        if(config.contactSolverEnabled) {
+            contactSolver.begin(bodies, islands, multiRate);
+            visitor = contactSolver.collector;
+        }
+        if(config.broadphaseEnabled && config.neighbourListEnabled) {
+            neighbours.update(bodies, grid, config);
+            neighbours.forEachPair(visitor);
+        } else if(config.broadphaseEnabled) {
+            grid.build(bodies, SpatialGrid.cellSizeFor(bodies, config));
+            grid.forEachPair(bodies, visitor);
+        } else {
+            for(int i = 0; i < count; i++)
+                for(int j = 0; j < count; j++) {
+                    if(i == j) continue;
+                    visitor.visit(i, j);
+                }
+        }
+        if(config.contactSolverEnabled) {
+            metrics.pairsTested += contactSolver.pairsTested;
+            metrics.pairsResolved += contactSolver.solve(config, width, height);
+        }
+    }
+    
+    private void tryConnectSpring(int i, int j) {
+        if(springs.outgoing[i] >= config.springMaxConnections) return;
+        if(springs.incoming[j] >= config.springMaxConnections) return;
+        if(springs.contains(i, j)) return;
+        if(Utils.distance(bodies.x[i], bodies.x[j], bodies.y[i], bodies.y[j]) < config.springMaxDistance) {
+            if(springs.add(i, j))
+                metrics.springsCreated++;
+        }
+    }
+    
+}
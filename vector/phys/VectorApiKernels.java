@@ -0,0 +1,128 @@
+package phys;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels written with the incubating Vector API. This is the only
+ * class that needs jdk.incubator.vector, so it lives in its own source
+ * directory and is compiled after the rest of the package:
+ *
+ *   javac -d out phys/*.java
+ *   javac --add-modules jdk.incubator.vector -cp out -d out vector/phys/*.java
+ *
+ * VectorSupport loads it by name and falls back to the scalar kernels when it
+ * wasn't compiled or the JVM doesn't have the module.
+ */
+class VectorApiKernels implements VectorKernels {
+    
+    static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    static final int LANES = DOUBLES.length();
+    // bodies per gravity tile, so the positions and masses of a tile stay in the L1 cache
+    private static final int TILE = 1024;
+    
+    @Override
+    public int lanes() {
+        return LANES;
+    }
+    
+    @Override
+    public void gravity(Config config, Bodies b, int from, int to, double delta, double[] outX, double[] outY) {
+        int count = b.count;
+        double[] x = b.x, y = b.y, mass = b.mass;
+        double factor = config.gravityRadialForce * delta;
+        DoubleVector zero = DoubleVector.zero(DOUBLES);
+        for(int tile = 0; tile < count; tile += TILE) {
+            int end = Math.min(count, tile + TILE);
+            int bound = tile + DOUBLES.loopBound(end - tile);
+            for(int i = from; i < to; i++) {
+                double xi = x[i], yi = y[i];
+                DoubleVector sumX = zero, sumY = zero;
+                for(int j = tile; j < bound; j += LANES) {
+                    DoubleVector dx = DoubleVector.fromArray(DOUBLES, x, j).sub(xi);
+                    DoubleVector dy = DoubleVector.fromArray(DOUBLES, y, j).sub(yi);
+                    DoubleVector distance2 = dx.mul(dx).add(dy.mul(dy));
+                    VectorMask<Double> same = distance2.compare(VectorOperators.EQ, 0);
+                    DoubleVector acceleration = DoubleVector.fromArray(DOUBLES, mass, j)
+                            .div(distance2.mul(distance2.sqrt())).blend(zero, same);
+                    sumX = dx.fma(acceleration, sumX);
+                    sumY = dy.fma(acceleration, sumY);
+                }
+                double accelerationX = sumX.reduceLanes(VectorOperators.ADD);
+                double accelerationY = sumY.reduceLanes(VectorOperators.ADD);
+                for(int j = bound; j < end; j++) {
+                    double dx = x[j] - xi;
+                    double dy = y[j] - yi;
+                    double distance2 = dx * dx + dy * dy;
+                    if(distance2 == 0)
+                        continue;
+                    double acceleration = mass[j] / (distance2 * Math.sqrt(distance2));
+                    accelerationX += dx * acceleration;
+                    accelerationY += dy * acceleration;
+                }
+                outX[i] += accelerationX * factor;
+                outY[i] += accelerationY * factor;
+            }
+        }
+    }
+    
+    @Override
+    public void move(Bodies b, int from, int to, double maxX, double maxY, double delta) {
+        clamp(b, from, to, maxX, maxY, delta, true);
+    }
+    
+    @Override
+    public void clamp(Bodies b, int from, int to, double maxX, double maxY) {
+        clamp(b, from, to, maxX, maxY, 0, false);
+    }
+    
+    private static void clamp(Bodies b, int from, int to, double maxX, double maxY, double delta, boolean advance) {
+        double[] x = b.x, y = b.y, speedX = b.speedX, speedY = b.speedY;
+        int bound = from + DOUBLES.loopBound(to - from);
+        for(int i = from; i < bound; i += LANES) {
+            DoubleVector px = DoubleVector.fromArray(DOUBLES, x, i);
+            DoubleVector py = DoubleVector.fromArray(DOUBLES, y, i);
+            DoubleVector vx = DoubleVector.fromArray(DOUBLES, speedX, i);
+            DoubleVector vy = DoubleVector.fromArray(DOUBLES, speedY, i);
+            if(advance) {
+                px = px.add(vx.mul(delta));
+                py = py.add(vy.mul(delta));
+            }
+            // balls are kept radius away from the walls and lose speed, boxes have no radius and bounce back fully
+            VectorMask<Double> ball = ((DoubleVector)IntVector.fromArray(INTS, b.type, i).convertShape(VectorOperators.I2D, DOUBLES, 0))
+                    .compare(VectorOperators.EQ, Bodies.BALL);
+            DoubleVector bounce = DoubleVector.broadcast(DOUBLES, 1).blend(DoubleVector.fromArray(DOUBLES, b.damping, i), ball);
+            DoubleVector radius = DoubleVector.fromArray(DOUBLES, b.radius, i);
+            DoubleVector highX = DoubleVector.broadcast(DOUBLES, maxX).sub(radius).sub(DoubleVector.fromArray(DOUBLES, b.width, i));
+            DoubleVector highY = DoubleVector.broadcast(DOUBLES, maxY).sub(radius).sub(DoubleVector.fromArray(DOUBLES, b.height, i));
+            VectorMask<Double> out = px.compare(VectorOperators.LT, radius);
+            px = px.blend(radius, out);
+            vx = vx.blend(vx.neg().mul(bounce), out);
+            out = px.compare(VectorOperators.GT, highX);
+            px = px.blend(highX, out);
+            vx = vx.blend(vx.neg().mul(bounce), out);
+            out = py.compare(VectorOperators.LT, radius);
+            py = py.blend(radius, out);
+            vy = vy.blend(vy.neg().mul(bounce), out);
+            out = py.compare(VectorOperators.GT, highY);
+            py = py.blend(highY, out);
+            vy = vy.blend(vy.neg().mul(bounce), out);
+            px.intoArray(x, i);
+            py.intoArray(y, i);
+            vx.intoArray(speedX, i);
+            vy.intoArray(speedY, i);
+        }
+        for(int i = bound; i < to; i++) {
+            if(advance)
+                PhysObject.move(b, i, 0, 0, maxX, maxY, delta);
+            else
+                PhysObject.clamp(b, i, 0, 0, maxX, maxY);
+        }
+    }
+
+}